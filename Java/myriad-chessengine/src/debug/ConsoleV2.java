@@ -2,8 +2,10 @@ package debug;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.io.File;
 import javax.swing.*;
 import rules.*;
+import tree.Pine;
 import debug.RoutineLibrary.*;
 import tables.*;
 
@@ -148,6 +150,14 @@ public class ConsoleV2 extends JFrame{
 			runningThread = new Thread (r);
 			runningThread.setPriority(Thread.MAX_PRIORITY);
 			runningThread.start();
+		} else if (id_arg[0].equals("loadtable")){
+			loadTable r = new loadTable(this, current, id_arg);
+			runningThread = new Thread (r);
+			runningThread.start();
+		} else if (id_arg[0].equals("savetable")){
+			saveTable r = new saveTable(this, current, id_arg);
+			runningThread = new Thread (r);
+			runningThread.start();
 		}
 		else console.append("<< Input not recognized. Input 'help' for the help screen.\n");
 		console.setCaretPosition(console.getText().length() - 1);
@@ -161,8 +171,13 @@ public class ConsoleV2 extends JFrame{
 		}
 	}
 	
+	/**
+	 * Starts the console.
+	 * @param argv The file to keep the transposition table in across runs, if any.
+	 */
 	public static void main (String [] argv){
 		Zobrist.init();
+		if (argv.length > 0) Pine.persistTable(new File(argv[0]));
 		SwingUtilities.invokeLater(new Runnable(){
 			public void run (){
 				new ConsoleV2();
@@ -0,0 +1,179 @@
+package debug;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rules.*;
+
+/**
+ * Runs perft and divide on several threads, split at the root: every root move is counted as a
+ * task of its own by a fixed pool of threads. Every thread counts with its own PerftEngine, forked
+ * from one so that they all share its table, and the counts are added up without any lock: each
+ * task writes the count of its own root move, and the totals are atomic. The total so far can thus
+ * be read while the count runs, see getNodes().
+ * @author Spork Innovation Technologies
+ */
+public final class ParallelPerft {
+	//----------------------Instance Variables----------------------
+	/** The number of threads to count with. */
+	private final int threads;
+	/** The engine the engines of the threads are forked from, which owns the shared table. */
+	private final PerftEngine engine;
+	/** The engine of every thread. */
+	private final ThreadLocal<PerftEngine> engines = new ThreadLocal<PerftEngine>(){
+		protected PerftEngine initialValue(){
+			return engine.fork();
+		}
+	};
+	/** The number of leaf nodes counted by the current count so far. */
+	private final AtomicLong nodes = new AtomicLong();
+	/** The detailed counts of the current detailed count so far, see PerftEngine.Details. */
+	private final AtomicLong captures = new AtomicLong(), en_passants = new AtomicLong(),
+			castles = new AtomicLong(), promotions = new AtomicLong(), checks = new AtomicLong(),
+			mates = new AtomicLong();
+	//----------------------End of Instance Variables----------------------
+
+	//----------------------Constructor----------------------
+	/**
+	 * Constructs a parallel perft.
+	 * @param threads The number of threads to count with, at least 1.
+	 * @param megabytes The size of the shared table in megabytes, 0 for no table.
+	 */
+	public ParallelPerft(int threads, int megabytes){
+		if (threads < 1) throw new IllegalArgumentException("At least one thread is needed.");
+		this.threads = threads;
+		engine = new PerftEngine(megabytes);
+	}
+	//----------------------End of Constructor----------------------
+
+	//----------------------Methods----------------------
+	/**
+	 * Returns the number of threads counted with.
+	 * @return The number of threads.
+	 */
+	public int getThreads(){
+		return threads;
+	}
+	/**
+	 * Returns the number of leaf nodes counted so far by the current or last count.
+	 * @return The number of leaf nodes.
+	 */
+	public long getNodes(){
+		return nodes.get();
+	}
+	/**
+	 * Counts the leaf nodes of every root move of a position to a given depth.
+	 * @param p The position.
+	 * @param depth The depth, in plies, at least 1.
+	 * @param moves The buffer to generate the packed root moves into.
+	 * @return The number of leaf nodes of every root move, in the order of moves.
+	 * @throws InterruptedException If the thread was interrupted while waiting for the count.
+	 */
+	public long[] divide(Position p, final int depth, int[] moves) throws InterruptedException {
+		nodes.set(0);
+		int count = p.toSearchBoard().generateMoves(moves);
+		final long[] counts = new long[count];
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(count);
+		for (int i = 0; i < count; i++){
+			final int index = i;
+			final Position board = p.toSearchBoard();
+			board.make(moves[i]);
+			tasks.add(new Callable<Object>(){
+				public Object call(){
+					counts[index] = engines.get().count(board, depth - 1);
+					nodes.addAndGet(counts[index]);
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		return counts;
+	}
+	/**
+	 * Counts the leaf nodes of a position to a given depth.
+	 * @param p The position.
+	 * @param depth The depth, in plies.
+	 * @return The number of leaf nodes.
+	 * @throws InterruptedException If the thread was interrupted while waiting for the count.
+	 */
+	public long perft(Position p, int depth) throws InterruptedException {
+		if (depth <= 1) return engine.perft(p, depth);
+		divide(p, depth, new int[Position.MAX_MOVES]);
+		return nodes.get();
+	}
+	/**
+	 * Counts the leaf nodes of a position to a given depth in the detailed mode of PerftEngine.
+	 * @param p The position.
+	 * @param depth The depth, in plies.
+	 * @return The counts of the leaf nodes.
+	 * @throws InterruptedException If the thread was interrupted while waiting for the count.
+	 */
+	public PerftEngine.Details perftDetailed(Position p, final int depth)
+			throws InterruptedException {
+		if (depth < 1) return engine.perftDetailed(p, depth);
+		nodes.set(0);
+		for (AtomicLong counter : new AtomicLong[] { captures, en_passants, castles, promotions,
+				checks, mates }) counter.set(0);
+		int[] moves = new int[Position.MAX_MOVES];
+		int count = p.toSearchBoard().generateMoves(moves);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(count);
+		for (int i = 0; i < count; i++){
+			final Position board = p.toSearchBoard();
+			board.make(moves[i]);
+			tasks.add(new Callable<Object>(){
+				public Object call(){
+					PerftEngine.Details d = new PerftEngine.Details();
+					engines.get().countDetailed(board, depth - 1, d);
+					nodes.addAndGet(d.nodes);
+					captures.addAndGet(d.captures);
+					en_passants.addAndGet(d.en_passants);
+					castles.addAndGet(d.castles);
+					promotions.addAndGet(d.promotions);
+					checks.addAndGet(d.checks);
+					mates.addAndGet(d.mates);
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		PerftEngine.Details details = new PerftEngine.Details();
+		details.nodes = nodes.get();
+		details.captures = captures.get();
+		details.en_passants = en_passants.get();
+		details.castles = castles.get();
+		details.promotions = promotions.get();
+		details.checks = checks.get();
+		details.mates = mates.get();
+		return details;
+	}
+	//----------------------End of Methods----------------------
+
+	//----------------------Helper Methods----------------------
+	/**
+	 * Runs tasks on a pool of the threads and waits for all of them to finish.
+	 * @param tasks The tasks.
+	 * @throws InterruptedException If the thread was interrupted while waiting, in which case the
+	 * tasks are cancelled.
+	 */
+	private void run(List<Callable<Object>> tasks) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			for (Future<Object> result : pool.invokeAll(tasks)){
+				try {
+					result.get();
+				} catch (ExecutionException e){
+					throw new IllegalStateException("A perft task failed.", e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	//----------------------End of Helper Methods----------------------
+}
\ No newline at end of file
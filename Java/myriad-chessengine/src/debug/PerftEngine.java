@@ -0,0 +1,238 @@
+package debug;
+
+import java.util.Arrays;
+
+import rules.*;
+
+/**
+ * Counts the leaf nodes of the tree of legal moves to a given depth (perft), to check the move
+ * generator against the known counts. The fast mode never makes the moves of the last ply: the
+ * number of legal moves of a position is the number of its leaves one ply deeper, so they are only
+ * generated and counted ("bulk counting"). The subtrees already counted are kept in a table keyed
+ * by the Zobrist hash, the side to move and the depth, so a transposition is only counted once.
+ *
+ * The detailed mode, see perftDetailed(), makes every leaf move to also count the captures,
+ * checks, mates and special moves. It neither bulk counts nor uses the table, and is thus much
+ * slower.
+ *
+ * An engine keeps its own move buffers, so it must only be used by one thread at a time. Engines
+ * made by fork() share the table of the engine they were made from, which is safe from any number
+ * of threads: an entry is its count and the key XOR-ed with its count, as in Round, so an entry
+ * torn by two threads writing it at once reads as a miss.
+ * @author Spork Innovation Technologies
+ */
+public final class PerftEngine {
+	//----------------------Constants----------------------
+	/** Mixed into the key of the positions with black to move, which the hash does not tell apart. */
+	private static final long BLACK_KEY = 0xd1b54a32d192ed03L;
+	/** Multiplied by the depth and mixed into the key, so that a position has one entry per depth. */
+	private static final long DEPTH_KEY = 0x9e3779b97f4a7c15L;
+	/** The smallest depth whose counts are stored, the shallower ones being as quick to count. */
+	private static final int MIN_STORED_DEPTH = 2;
+	//----------------------End of Constants----------------------
+
+	//----------------------Instance Variables----------------------
+	/** The table, the key XOR-ed with the count and then the count for every entry, or null. */
+	private final long[] table;
+	/** The mask of the index of an entry. */
+	private final int mask;
+	/** The move buffers, one per remaining ply. */
+	private int[][] buffers = new int[0][];
+	//----------------------End of Instance Variables----------------------
+
+	//----------------------Constructors----------------------
+	/**
+	 * Constructs a perft engine with a table of about the given size.
+	 * @param megabytes The size of the table in megabytes, rounded down to a power of two number
+	 * of entries. 0 for no table.
+	 */
+	public PerftEngine(int megabytes){
+		if (megabytes < 0) throw new IllegalArgumentException("The size cannot be negative.");
+		if (megabytes == 0){
+			table = null;
+			mask = 0;
+		} else {
+			int entries = (int) Long.highestOneBit(Math.min((long) megabytes << 16, 1 << 29));
+			table = new long[entries * 2];
+			mask = entries - 1;
+		}
+	}
+	/**
+	 * Constructs a perft engine that shares the table of another one.
+	 * @param shared The engine whose table is shared.
+	 */
+	private PerftEngine(PerftEngine shared){
+		table = shared.table;
+		mask = shared.mask;
+	}
+	//----------------------End of Constructors----------------------
+
+	//----------------------Methods----------------------
+	/**
+	 * Returns a new engine that shares the table of this one, to count from another thread.
+	 * @return The new engine.
+	 */
+	public PerftEngine fork(){
+		return new PerftEngine(this);
+	}
+	/**
+	 * Counts the leaf nodes of a position to a given depth.
+	 * @param p The position.
+	 * @param depth The depth, in plies.
+	 * @return The number of leaf nodes.
+	 */
+	public long perft(Position p, int depth){
+		return count(p.toSearchBoard(), depth);
+	}
+	/**
+	 * Counts the leaf nodes of a search board to a given depth, making and unmaking the moves in
+	 * place.
+	 * @param board The search board, it is back to the same position when this returns.
+	 * @param depth The depth, in plies.
+	 * @return The number of leaf nodes.
+	 */
+	public long count(Position board, int depth){
+		ensureBuffers(depth);
+		return countNodes(board, depth);
+	}
+	/**
+	 * Counts the leaf nodes of a position to a given depth in the detailed mode, see the class
+	 * description.
+	 * @param p The position.
+	 * @param depth The depth, in plies.
+	 * @return The counts of the leaf nodes.
+	 */
+	public Details perftDetailed(Position p, int depth){
+		Details details = new Details();
+		countDetailed(p.toSearchBoard(), depth, details);
+		return details;
+	}
+	/**
+	 * Counts the leaf nodes of a search board to a given depth in the detailed mode, see the class
+	 * description.
+	 * @param board The search board, it is back to the same position when this returns.
+	 * @param depth The depth, in plies.
+	 * @param details The counts to add the leaf nodes to.
+	 */
+	public void countDetailed(Position board, int depth, Details details){
+		ensureBuffers(depth + 1);
+		countDetails(board, depth, details);
+	}
+	/**
+	 * Empties the table.
+	 */
+	public void clear(){
+		if (table != null) Arrays.fill(table, 0);
+	}
+	//----------------------End of Methods----------------------
+
+	//----------------------Helper Methods----------------------
+	/**
+	 * Counts the leaf nodes of the fast mode.
+	 * @param board The search board.
+	 * @param depth The depth, at least 1 unless the count is of the position itself.
+	 * @return The number of leaf nodes.
+	 */
+	private long countNodes(Position board, int depth){
+		if (depth == 0) return 1;
+		int[] moves = buffers[depth - 1];
+		if (depth == 1) return board.generateMoves(moves);
+		long key = 0;
+		int index = 0;
+		if (table != null && depth >= MIN_STORED_DEPTH){
+			key = board.getHash() ^ (board.isWhiteToMove() ? 0 : BLACK_KEY) ^ (depth * DEPTH_KEY);
+			index = (int) (key & mask) * 2;
+			long nodes = table[index + 1];
+			if ((table[index] ^ nodes) == key && nodes != 0) return nodes;
+		}
+		long nodes = 0;
+		int count = board.generateMoves(moves);
+		for (int i = 0; i < count; i++){
+			board.make(moves[i]);
+			nodes += countNodes(board, depth - 1);
+			board.unmake();
+		}
+		if (table != null && depth >= MIN_STORED_DEPTH){
+			table[index] = key ^ nodes;
+			table[index + 1] = nodes;
+		}
+		return nodes;
+	}
+	/**
+	 * Counts the leaf nodes of the detailed mode.
+	 * @param board The search board.
+	 * @param depth The remaining depth.
+	 * @param details The counts to add the leaf nodes to.
+	 */
+	private void countDetails(Position board, int depth, Details details){
+		int[] moves = buffers[depth];
+		if (depth == 0){
+			details.nodes++;
+			switch (Move.modifierOf(board.getPriorMove())){
+				case 10: details.captures++; break;
+				case 6: case 7: case 8: case 9: details.promotions++; break;
+				case 16: case 17: case 18: case 19: details.promotions++; details.captures++; break;
+				case 1: case 2: case 3: case 4: details.castles++; break;
+				case 5: details.en_passants++; details.captures++; break;
+			}
+			if (board.isInCheck(false)){
+				details.checks++;
+				if (board.generateMoves(moves) == 0) details.mates++;
+			}
+			return;
+		}
+		int count = board.generateMoves(moves);
+		for (int i = 0; i < count; i++){
+			board.make(moves[i]);
+			countDetails(board, depth - 1, details);
+			board.unmake();
+		}
+	}
+	/**
+	 * Makes sure there is a move buffer for every ply of a count.
+	 * @param plies The number of plies.
+	 */
+	private void ensureBuffers(int plies){
+		if (buffers.length >= plies) return;
+		int[][] fresh = new int[plies][];
+		for (int i = 0; i < plies; i++)
+			fresh[i] = i < buffers.length ? buffers[i] : new int[Position.MAX_MOVES];
+		buffers = fresh;
+	}
+	//----------------------End of Helper Methods----------------------
+
+	//----------------------Inner Classes----------------------
+	/**
+	 * The counts of the leaf nodes of the detailed mode, by the move that led to them.
+	 */
+	public static final class Details {
+		/** The number of leaf nodes. */
+		public long nodes;
+		/** The number of captures, the en passant ones included. */
+		public long captures;
+		/** The number of captures en passant. */
+		public long en_passants;
+		/** The number of castling moves. */
+		public long castles;
+		/** The number of promotions. */
+		public long promotions;
+		/** The number of moves that give check. */
+		public long checks;
+		/** The number of moves that give mate. */
+		public long mates;
+		/**
+		 * Adds the counts of another set of leaf nodes to these.
+		 * @param other The other counts.
+		 */
+		public void add(Details other){
+			nodes += other.nodes;
+			captures += other.captures;
+			en_passants += other.en_passants;
+			castles += other.castles;
+			promotions += other.promotions;
+			checks += other.checks;
+			mates += other.mates;
+		}
+	}
+	//----------------------End of Inner Classes----------------------
+}
\ No newline at end of file
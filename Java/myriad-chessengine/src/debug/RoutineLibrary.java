@@ -1,7 +1,9 @@
 package debug;
 
+import java.io.File;
 import java.text.DecimalFormat;
 import rules.*;
+import tree.Pine;
 import debug.ConsoleV2.Routine;
 import eval.*;
 
@@ -101,12 +103,18 @@ public class RoutineLibrary {
 			outputLine ("primeval -> calls the basic evaluation heuristic.");
 			outputLine ("perft <depth>");
 			outputLine ("\tperft <depth> -> calls a non-descriptive performance test for the ");
-			outputLine ("\t\tcurrent position at a specified depth");
+			outputLine ("\t\tcurrent position at a specified depth, with bulk counting and a");
+			outputLine ("\t\ttable of the counted subtrees.");
 			outputLine ("\tperft <depth> <s>,<d> -> adding a 'd' will provide details for ");
-			outputLine ("\t\tperformance test (checks, captures, etc.) and adding a 's' will");
-			outputLine ("\t\tperform the perft for depth 1 to the specified depth. Example:");
-			outputLine ("\t\tperft 5 d,s");
-			outputLine ("divide <depth> -> performs a divide test to a specific depth.");
+			outputLine ("\t\tperformance test (checks, captures, etc.), much more slowly, and");
+			outputLine ("\t\tadding a 's' will perform the perft for depth 1 to the specified");
+			outputLine ("\t\tdepth. Adding a 't' and a number counts with that many threads,");
+			outputLine ("\t\tas many as there are processors otherwise, and adding a 'x' counts");
+			outputLine ("\t\twith 1, 2, 4... threads up to them. Example: perft 5 d,s,t4,x");
+			outputLine ("divide <depth> <threads> -> performs a divide test to a specific depth,");
+			outputLine ("\twith as many threads as there are processors if none are given.");
+			outputLine ("loadtable <file> -> replaces the transposition table by one saved to a file.");
+			outputLine ("savetable <file> -> saves the transposition table to a file.");
 		}
 	}
 	public static class prim_evaluate extends Routine {
@@ -145,47 +153,50 @@ public class RoutineLibrary {
 		public perft (ConsoleV2 cs, Position p, String [] argv){
 			super (cs, p, argv);
 		}
-		protected void start (Position p, String [] argv){
+		protected void start (Position p, String [] argv) throws Exception {
 			if (argv.length == 1) {
-				outputLine ("Invalid usage. Usage is: perft <depth> <descriptive?>,<serial?>");
+				outputLine ("Invalid usage. Usage is: perft <depth> <descriptive?>,<serial?>,<t threads?>,<scaling?>");
 				return;
 			}
-			int depth = 1;
+			int depth = 1, threads = defaultThreads();
+			boolean serial = false, descriptive = false, scaling = false;
 			try {
 				depth = Integer.parseInt(argv[1]);
+				if (argv.length > 2){
+					for (String st : argv[2].split(",")){
+						if (st.charAt(0) == 'd') descriptive = true;
+						else if (st.charAt(0) == 's') serial = true;
+						else if (st.charAt(0) == 'x') scaling = true;
+						else if (st.charAt(0) == 't') threads = Integer.parseInt(st.substring(1));
+					}
+				}
 			} catch (NumberFormatException ex){
-				outputLine ("Invalid usage. Usage is: perft <depth> <descriptive?>,<serial?>");
+				outputLine ("Invalid usage. Usage is: perft <depth> <descriptive?>,<serial?>,<t threads?>,<scaling?>");
 				return;
 			}
-			boolean serial = false, descriptive = false;
-			if (argv.length > 2){
-				String [] st = argv[2].split(",");
-				if (st[0].charAt(0) == 'd') descriptive = true;
-				else if (st[0].charAt(0) == 's') serial = true;
-				if (st.length > 1){
-					if (st[1].charAt(0) == 'd') descriptive = true;
-					else if (st[1].charAt(0) == 's') serial = true;
-				}
-			}
 			outputLine("---------------Perf. Test Start---------------");
-			if (descriptive) outputLine ("Depth\tNodes\tTime(ms)\tkN/s\tCaptures\tChecks\tMates" +
+			if (descriptive) outputLine ("Depth\tThreads\tNodes\tTime(ms)\tkN/s\tCaptures\tChecks\tMates" +
 					"\tPromotions\tEP\tCastle");
-			else outputLine ("Depth\tNodes\tTime(ms)\tkN/s");
+			else outputLine ("Depth\tThreads\tNodes\tTime(ms)\tkN/s");
 			int s_depth = serial ? 1 : depth;
 			for (int i = s_depth; i <= depth; i++){
-				check = 0;
-				checkmate = 0;
-				promotion = 0;
-				castle = 0;
-				ep = 0;
-				capture = 0;
-				long s_time = System.currentTimeMillis();
-				int nodes = Perft(i, p);
-				long e_time = System.currentTimeMillis() - s_time;
-				double n_per_sec = nodes/ (double)(e_time);
-				if (descriptive) outputLine(i+"\t"+nodes+"\t"+e_time+"\t"+dcf.format(n_per_sec)+"\t"+capture
-						+"\t"+check+"\t"+checkmate+"\t"+promotion+"\t"+ep+"\t"+castle);
-				else outputLine (i + "\t" + nodes + "\t" + e_time + "\t" + dcf.format(n_per_sec));
+				// with scaling, the count is run again for 1, 2, 4... threads, each with a fresh table
+				for (int t = scaling ? 1 : threads; t <= threads; t = t < threads ? Math.min(2 * t, threads) : t + 1){
+					ParallelPerft perft = new ParallelPerft(t, descriptive ? 0 : PERFT_MEGABYTES);
+					long s_time = System.currentTimeMillis();
+					if (descriptive){
+						PerftEngine.Details d = perft.perftDetailed(p, i);
+						long e_time = System.currentTimeMillis() - s_time;
+						outputLine(i+"\t"+t+"\t"+d.nodes+"\t"+e_time+"\t"+dcf.format(d.nodes/(double)(e_time))
+								+"\t"+d.captures+"\t"+d.checks+"\t"+d.mates+"\t"+d.promotions+"\t"
+								+d.en_passants+"\t"+d.castles);
+					} else {
+						long nodes = perft.perft(p, i);
+						long e_time = System.currentTimeMillis() - s_time;
+						outputLine (i + "\t" + t + "\t" + nodes + "\t" + e_time + "\t" 
+								+ dcf.format(nodes/(double)(e_time)));
+					}
+				}
 			}
 			outputLine("----------------Perf. Test End----------------");
 		}
@@ -196,54 +207,83 @@ public class RoutineLibrary {
 		}
 		protected void start(Position p, String[] argv) throws Exception {
 			if (argv.length == 1) {
-				outputLine ("Invalid usage. Usage is: divide <depth>");
+				outputLine ("Invalid usage. Usage is: divide <depth> <threads?>");
 				return;
 			}
-			int depth = 1;
+			int depth = 1, threads = defaultThreads();
 			try {
 				depth = Integer.parseInt(argv[1]);
+				if (argv.length > 2) threads = Integer.parseInt(argv[2]);
 			} catch (NumberFormatException ex){
-				outputLine ("Invalid usage. Usage is: perft <depth> <descriptive?>,<serial?>");
+				outputLine ("Invalid usage. Usage is: divide <depth> <threads?>");
 				return;
 			}
-			Move [] div = p.generateAllMoves();
+			ParallelPerft perft = new ParallelPerft(threads, PERFT_MEGABYTES);
+			int[] div = new int[Position.MAX_MOVES];
 			outputLine("---------------Divide Start---------------");
+			long s_time = System.currentTimeMillis();
+			long[] res = perft.divide(p, depth, div);
+			long e_time = System.currentTimeMillis() - s_time;
 			outputLine ("Move\tNodes\tResulting FEN");
-			for (Move m: div){
-				Position newposition = p.makeMove(m);
-				int res = Perft(depth-1, newposition);
-				outputLine(m.toString(p) + "\t" + res + "\t" + Utility.saveFEN(newposition));
+			Position board = p.toSearchBoard();
+			for (int i = 0; i < res.length; i++){
+				board.make(div[i]);
+				outputLine(Move.toMove(div[i]).toString(p) + "\t" + res[i] + "\t" + Utility.saveFEN(board));
+				board.unmake();
 			}
+			outputLine("Total\t" + perft.getNodes() + "\t" + e_time + " ms, " + threads + " threads, "
+					+ dcf.format(perft.getNodes()/(double)(e_time)) + " kN/s");
 			outputLine("----------------Divide End----------------");
 		}
 	}
-	public static final DecimalFormat dcf = new DecimalFormat("#.###");
-	public static int check;
-	public static int checkmate;
-	public static int promotion;
-	public static int castle;
-	public static int ep;
-	public static int capture;
-	
-	private static int Perft (int depth, Position p){
-		int nodes = 0;
-		if (depth == 0){
-			byte mod = p.prior_move.getModifier();
-			if (p.isInCheck(false)) check ++;
-			if (p.getResult()==Position.BLACK_WINS||p.getResult()==Position.WHITE_WINS) checkmate++;
-			switch (mod){
-				case 10: capture++; break;
-				case 6: case 7: case 8: case 9: promotion++; break;
-				case 16: case 17: case 18: case 19: promotion++; capture++; break;
-				case 1: case 2: case 3: case 4: castle++; break;
-				case 5: ep++; capture++; break;
+	public static class loadTable extends Routine {
+		public loadTable(ConsoleV2 cs, Position p, String[] argv) {
+			super(cs, p, argv);
+		}
+		protected void start(Position p, String[] argv) throws Exception {
+			if (argv.length == 1) {
+				outputLine ("Invalid usage. Usage is: loadtable <file>");
+				return;
 			}
-			return 1;
-		} 
-		Move[] move_list = p.generateAllMoves();
-		for (Move m: move_list){
-			nodes += Perft(depth-1, p.makeMove(m));
+			long s_time = System.currentTimeMillis();
+			Pine.loadTable(tableFile(argv));
+			outputLine ("Table loaded, " + Pine.getTable().getSize() + " entries, "
+					+ (System.currentTimeMillis() - s_time) + " ms.");
 		}
-		return nodes;	
 	}
+	public static class saveTable extends Routine {
+		public saveTable(ConsoleV2 cs, Position p, String[] argv) {
+			super(cs, p, argv);
+		}
+		protected void start(Position p, String[] argv) throws Exception {
+			if (argv.length == 1) {
+				outputLine ("Invalid usage. Usage is: savetable <file>");
+				return;
+			}
+			long s_time = System.currentTimeMillis();
+			Pine.saveTable(tableFile(argv));
+			outputLine ("Table saved, " + Pine.getTable().getSize() + " entries, "
+					+ (System.currentTimeMillis() - s_time) + " ms.");
+		}
+	}
+	/**
+	 * Returns the file of the table routines, whose name may contain spaces.
+	 * @param argv The arguments of the routine, the file name from the second on.
+	 * @return The file.
+	 */
+	private static File tableFile(String[] argv){
+		String name = argv[1];
+		for (int i = 2; i < argv.length; i++) name += " " + argv[i];
+		return new File(name);
+	}
+	/**
+	 * Returns the number of threads perft and divide count with when none is given.
+	 * @return The number of processors.
+	 */
+	private static int defaultThreads(){
+		return Runtime.getRuntime().availableProcessors();
+	}
+	public static final DecimalFormat dcf = new DecimalFormat("#.###");
+	/** The size of the tables of the perft and divide routines, in megabytes. */
+	public static final int PERFT_MEGABYTES = 64;
 }
\ No newline at end of file
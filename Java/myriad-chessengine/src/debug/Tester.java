@@ -13,9 +13,34 @@ import tables.*;
 public class Tester {
 	public static void main(String[] args){
 		//testRound();
+		testSEE();
 		testPVS("4r3/8/3r3p/4ppk1/P7/1PR3PP/5P2/4R1K1 b - - 0 44");
 	}
 	
+	/**
+	 * Checks see() against known exchanges and against seeGreaterOrEqual(). In both positions the
+	 * white king may not recapture, as the black king guards the square.
+	 */
+	public static void testSEE(){
+		testSEE("rnr5/p3kp2/b2pP2b/5KpP/Pn6/4P2B/1N5P/RN5R b - - 0 1", (byte) 0x65, (byte) 0x54, 100);
+		testSEE("rn6/p3kp2/b1npP2b/5KpP/P3P3/7B/1N5P/RNr2R2 b - - 2 1", (byte) 0x65, (byte) 0x55, 0);
+	}
+	
+	public static void testSEE(String fen, byte start, byte end, int expected){
+		Position p = Utility.loadFEN(fen);
+		int[] moves = new int[Position.MAX_MOVES];
+		int count = p.generateMoves(moves);
+		for (int i = 0; i < count; i++){
+			if (Move.startOf(moves[i]) != start || Move.endOf(moves[i]) != end) continue;
+			int see = p.see(moves[i]);
+			boolean agrees = p.seeGreaterOrEqual(moves[i], see) && !p.seeGreaterOrEqual(moves[i], see + 1);
+			System.out.println(Move.toMove(moves[i]).toString(p) + " see = " + see + ", expected " + expected
+					+ (see == expected && agrees ? ": ok" : ": FAILED") + " (" + fen + ")");
+			return;
+		}
+		System.out.println("Move not found: FAILED (" + fen + ")");
+	}
+	
 	public static void testPVS(String fen){
 		Position p = Utility.loadFEN(fen);
 		Pine tree = new Pine(p);
@@ -53,4 +78,4 @@ public class Tester {
 		// Retrieve white to move
 		System.out.println("White to Move: " + (data & Round.MASK_BIT));
 	}
-}
+}
\ No newline at end of file
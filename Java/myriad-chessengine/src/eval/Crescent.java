@@ -30,19 +30,19 @@ public class Crescent {
 		}
 	}
 	public static final long MATERIAL_MASK = 0xffff;
-	public static final int TOTAL_MATERIAL = 8170;
+	public static final int TOTAL_MATERIAL = Position.TOTAL_MATERIAL;
 	public int phase_factor;
 	Lorenz lz;
+	Position position;
 	
 	public Crescent (Position p){
-		lz = new Lorenz (p);
-		long w_mat = lz.get(Lorenz.WHITE_ABSOLUTE_MATERIAL), b_mat = lz.get(Lorenz.BLACK_ABSOLUTE_MATERIAL);
-		phase_factor = (int) ((((w_mat >> 20) + (b_mat >> 20)) * 256 + TOTAL_MATERIAL/ 2) / TOTAL_MATERIAL);
+		position = p;
+		lz = p.getLorenz();
+		// the position keeps its material and phase up to date as moves are made
+		phase_factor = p.getPhase();
 	}
 	public void determineSurplus(){
-		long w_absolute = lz.get(Lorenz.WHITE_ABSOLUTE_MATERIAL), 
-				b_absolute = lz.get(Lorenz.BLACK_ABSOLUTE_MATERIAL);
-		long diff = ((w_absolute & MATERIAL_MASK) >> 20)- ((b_absolute & MATERIAL_MASK) >> 20);
+		long diff = position.getMaterial(true) - position.getMaterial(false);
 		if (diff > 200) {
 			// TODO: set weights to decisive white advantage
 		} else if (diff >= 20){
@@ -56,9 +56,7 @@ public class Crescent {
 		}
 	}
 	public void determineGamePhase(){
-		long w_absolute = lz.get(Lorenz.WHITE_ABSOLUTE_MATERIAL),
-				b_absolute = lz.get(Lorenz.BLACK_ABSOLUTE_MATERIAL);
-		long average = (((w_absolute & MATERIAL_MASK)>>20) + ((b_absolute & MATERIAL_MASK)>>20))/2;
+		long average = (position.getMaterial(true) + position.getMaterial(false))/2;
 		if (average > 2800){
 			// set weights towards middle game.
 		} else if (average > 2000){
@@ -2,6 +2,7 @@ package eval;
 
 import java.util.*;
 import rules.*;
+import tables.PawnTable;
 
 /**
  * Lorenz is the third framework to the chess engine. It is named after the Lorenz cipher
@@ -75,26 +76,53 @@ public final class Lorenz {
 	public static final byte MAX_FEATURES = 38;
 	// useful constants
 	private static final int BISHOP_MASK = 0xf000;
-	private static final short PAWN_VALUE = 100;
-	private static final short KNIGHT_VALUE = 325;
-	private static final short BISHOP_VALUE = 330;
-	private static final short ROOK_VALUE = 500;
-	private static final short QUEEN_VALUE = 975;
 	private static final byte[] PAWN_STORM_VALUES = { 0, 0, 0, 0, 0, 0, 0, 0,
 		0, 0, 0, 0, 0, 0, 0, 0, 6, 6, 6, 6, 6, 6, 6, 6, 0, 0, 0, 0, 0, 0,
 		0, 0, 8, 8, 8, 5, 4, 8, 8, 8, 0, 0, 0, 0, 0, 0, 0, 0, 2, 3, 3, 1,
 		1, 3, 3, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 0, 0, 1, 1, 0, 0, 0,
 		0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+	/** The features that only depend on the pawns, in the order they are stored in the pawn table. */
+	private static final byte[] PAWN_FEATURES = { BUFFER1, WHITE_COLUMN_A, WHITE_COLUMN_B,
+		WHITE_COLUMN_C, WHITE_COLUMN_D, WHITE_COLUMN_E, WHITE_COLUMN_F, WHITE_COLUMN_G, WHITE_COLUMN_H,
+		BUFFER2, BLACK_COLUMN_A, BLACK_COLUMN_B, BLACK_COLUMN_C, BLACK_COLUMN_D, BLACK_COLUMN_E,
+		BLACK_COLUMN_F, BLACK_COLUMN_G, BLACK_COLUMN_H, BUFFER3, PAWN_ISLANDS, WHITE_PASSERS,
+		BLACK_PASSERS, WHITE_DOUBLED_PAWNS, BLACK_DOUBLED_PAWNS, WHITE_BACKWARDS, BLACK_BACKWARDS,
+		WHITE_ISOLANIS, BLACK_ISOLANIS, SPACE, OPEN_FILES };
+	/** Whether or not a feature is one of the pawn features, by index. */
+	private static final boolean[] IS_PAWN_FEATURE = new boolean [MAX_FEATURES];
+	static {
+		for (byte i : PAWN_FEATURES) IS_PAWN_FEATURE[i] = true;
+	}
+	/** The piece types of the attack maps, the most valuable first. */
+	private static final byte[] ATTACKER_TYPES = { Piece.KING, Piece.QUEEN, Piece.ROOK, Piece.BISHOP,
+		Piece.KNIGHT, Piece.PAWN };
+	/** The values of the piece types of the attack maps, the king being 0xe. */
+	private static final int[] ATTACKER_VALUES = { 0xe, 9, 5, 3, 3, 1 };
+	/** The number of bits of the pawn table index. */
+	private static final int PAWN_TABLE_BITS = 14;
+	/** The pawn hash table shared by all Lorenz objects. */
+	private static final PawnTable pawn_table = new PawnTable(PAWN_TABLE_BITS, PAWN_FEATURES.length);
 	// ----------------------End of Constants----------------------
 	// ----------------------Instance Variables----------------------
 	private Piece[] white_pawns;
 	private Piece[] black_pawns;
-	private Piece[] white_pieces;
-	private Piece[] black_pieces;
+	private final Piece[] white_pieces = new Piece [16];
+	private final Piece[] black_pieces = new Piece [16];
 	private byte black_king;
 	private byte white_king;
 	public long [] features = new long [MAX_FEATURES];
 	private Position position;
+	/** Whether or not the pawn features have all been computed or looked up. */
+	private boolean pawns_done;
+	// scratch arrays, kept so that a reset Lorenz allocates nothing
+	/** The white and black pawn arrays, one of each length, built when first needed. */
+	private final Piece[][] white_pawn_arrays = new Piece [17][], black_pawn_arrays = new Piece [17][];
+	/** The piece counts of both sides, used by material(). */
+	private final int [][] material = new int [2][6];
+	/** The pawn feature words, as exchanged with the pawn table. */
+	private final long [] pawn_words = new long [PAWN_FEATURES.length];
+	/** The attack maps of both sides, used by sentinelsquares(). */
+	private final long [] w_map = new long [64], b_map = new long [64];
 	// ----------------------End of Instance Variables----------------------
 	// ----------------------Constructors----------------------
 	/**
@@ -104,21 +132,29 @@ public final class Lorenz {
 	 * @param p The position to evaluate.
 	 */
 	public Lorenz(Position p) {
-		Vector<Piece> w_p = new Vector<Piece>(8), b_p = new Vector<Piece>(8);
-		white_pieces = p.getWhitePieces();
-		black_pieces = p.getBlackPieces();
-		for (Piece q : white_pieces) if (q.getType() == Piece.PAWN) w_p.add(q);
-		for (Piece q : black_pieces) if (q.getType() == Piece.PAWN) b_p.add(q); 
+		reset(p);
+	}
+	// ----------------------End of Constructors----------------------
+	// ----------------------Methods----------------------
+	/**
+	 * Points this framework to another position and forgets all the features computed so far. The
+	 * piece, pawn and scratch arrays are reused, so a search board can keep one Lorenz object and
+	 * reset it whenever a changed position is evaluated.
+	 * @param p The position to evaluate.
+	 */
+	public void reset (Position p){
+		p.copyPieces(true, white_pieces);
+		p.copyPieces(false, black_pieces);
 		white_king = white_pieces[0].getPosition();
 		black_king = black_pieces[0].getPosition();
-		white_pawns = w_p.toArray(new Piece[w_p.size()]);
-		black_pawns = b_p.toArray(new Piece[b_p.size()]);
+		white_pawns = collectPawns(white_pieces, white_pawn_arrays);
+		black_pawns = collectPawns(black_pieces, black_pawn_arrays);
 		position = p;
+		pawns_done = false;
+		Arrays.fill(features, 0);
 		sort(white_pawns, 0, white_pawns.length-1);
 		sort(black_pawns, 0, black_pawns.length-1);
 	}
-	// ----------------------End of Constructors----------------------
-	// ----------------------Methods----------------------
 	/**
 	 * Retrieves the stored feature value inside the specified index, please see
 	 * the constants for the appropriate indices. If the value is not present, then
@@ -129,6 +165,10 @@ public final class Lorenz {
 	public long get (byte featureIndex){
 		if (featureIndex > MAX_FEATURES) throw new IllegalArgumentException();
 		if (features[featureIndex] != 0) return features[featureIndex];
+		if (IS_PAWN_FEATURE[featureIndex]){
+			if (!pawns_done) pawnstructure();
+			return features[featureIndex];
+		}
 		switch (featureIndex){
 		case WHITE_ABSOLUTE_MATERIAL: case BLACK_ABSOLUTE_MATERIAL: case WHITE_RELATIVE_MATERIAL:
 		case BLACK_RELATIVE_MATERIAL: material(); break;
@@ -152,6 +192,13 @@ public final class Lorenz {
 		}
 		return features[featureIndex];
 	}
+	/**
+	 * Returns the pawn hash table, e.g. to read its hit and miss counters.
+	 * @return the pawn hash table shared by all Lorenz objects.
+	 */
+	public static PawnTable getPawnTable (){
+		return pawn_table;
+	}
 	/**
 	 * Returns the underlying position reference.
 	 * @return the underlying position reference
@@ -170,21 +217,13 @@ public final class Lorenz {
 	 * the relative difference.
 	 */
 	private void material(){
-		int [][] material = new int [2][6];
 		long w_absolute = 0, b_absolute = 0, w_relative = 0, b_relative = 0;
-		int type, w_count = 0, b_count = 0;
-		for (Piece p : white_pieces) if ((type = p.getType()) != Piece.NULL) material[0][type]++;
-		for (Piece p : black_pieces) if ((type = p.getType()) != Piece.NULL) material[1][type]++;
-		w_count += material[0][Piece.PAWN]*PAWN_VALUE;
-		w_count += material[0][Piece.ROOK]*ROOK_VALUE;
-		w_count += material[0][Piece.KNIGHT]*KNIGHT_VALUE;
-		w_count += material[0][Piece.BISHOP]*BISHOP_VALUE;
-		w_count += material[0][Piece.QUEEN]*QUEEN_VALUE; 
-		b_count += material[1][Piece.PAWN]*PAWN_VALUE;
-		b_count += material[1][Piece.ROOK]*ROOK_VALUE;
-		b_count += material[1][Piece.KNIGHT]*KNIGHT_VALUE;
-		b_count += material[1][Piece.BISHOP]*BISHOP_VALUE;
-		b_count += material[1][Piece.QUEEN]*QUEEN_VALUE;
+		// the position keeps its material up to date, so nothing is counted here
+		for (byte type = Piece.PAWN; type < Piece.KING; type++){
+			material[0][type] = position.getPieceCount(type, Piece.WHITE);
+			material[1][type] = position.getPieceCount(type, Piece.BLACK);
+		}
+		int w_count = position.getMaterial(true), b_count = position.getMaterial(false);
 		for (int i = 0; i < 5; i++) w_absolute = (w_absolute << 4) + material[0][i];
 		for (int i = 0; i < 5; i++) b_absolute = (b_absolute << 4) + material[1][i];
 		w_absolute = (w_absolute << 16) + w_count;
@@ -274,6 +313,29 @@ public final class Lorenz {
 		else bvn_str = 1;
 		features[DYNAMICS] = (bvn_str << 8) + (ops_str << 4) + two_str; 
 	}
+	/**
+	 * Fills in all the pawn features at once. They are looked up in the pawn hash table under the
+	 * pawn hash of the position, and only computed and stored there if they are not found.
+	 */
+	private void pawnstructure(){
+		long key = position.getPawnHash();
+		if (pawn_table.get(key, pawn_words)){
+			for (int i = 0; i < PAWN_FEATURES.length; i++) features[PAWN_FEATURES[i]] = pawn_words[i];
+		} else {
+			// the king safety feature may have built the pawn formation already
+			for (byte i : PAWN_FEATURES) features[i] = 0;
+			pawnformation();
+			pawnislands();
+			doublepawns();
+			weakpawns();
+			passedpawns();
+			openlines();
+			space();
+			for (int i = 0; i < PAWN_FEATURES.length; i++) pawn_words[i] = features[PAWN_FEATURES[i]];
+			pawn_table.set(key, pawn_words);
+		}
+		pawns_done = true;
+	}
 	/**
 	 * Returns the pawn formations by grouping the pawns into columns. This approach follows a 
 	 * radix sort approach. If a specific column is empty, then -1 will be returned to that column.
@@ -503,24 +565,21 @@ public final class Lorenz {
 	 */
 	private void sentinelsquares(){
 		boolean isOnMove = position.isWhiteToMove();
-		long [] w_map = new long [0x79], b_map = new long[0x79];
-		boolean [] w_sq = new boolean [64], b_sq = new boolean [64];
-		updateMap (w_map, white_pieces, position, true);
-		updateMap (b_map, black_pieces, position, false);
-		for (int i = 0; i < 0x88; i++){
-			if ((i & 0x88) == 0) {
-				long w = countingSort(w_map[i]), b = countingSort(b_map[i]);
-				int result = doBattle(w, b, isOnMove);
-				if (result == 1) w_sq [(i>>4)*8+(i&7)] = true;
-				if (result == -1) b_sq [(i>>4)*8+(i&7)] = true;
+		long w_attacked = position.getAttackedSquares(Piece.WHITE),
+				b_attacked = position.getAttackedSquares(Piece.BLACK);
+		// a square attacked by one side only is under its control, the others need a battle
+		long w_return = w_attacked & ~b_attacked, b_return = b_attacked & ~w_attacked;
+		long contested = w_attacked & b_attacked;
+		if (contested != 0){
+			updateMap (w_map, Piece.WHITE, contested);
+			updateMap (b_map, Piece.BLACK, contested);
+			for (long sqs = contested; sqs != 0; sqs &= sqs - 1){
+				int sq = Long.numberOfTrailingZeros(sqs);
+				int result = doBattle(w_map[sq], b_map[sq], isOnMove);
+				if (result == 1) w_return |= 1L << sq;
+				if (result == -1) b_return |= 1L << sq;
 			}
 		}
-		long w_return = 0, b_return = 0, bin_c = 1;
-		for (int i = 0; i < 64; i++){
-			long construct = bin_c << i;
-			if (w_sq [i]) w_return += construct;
-			if (b_sq [i]) b_return += construct;
-		}
 		features[WHITE_SENTINELS] = w_return;
 		features[BLACK_SENTINELS] = b_return;
 	}
@@ -700,125 +759,42 @@ public final class Lorenz {
 		}
 	}
 	/**
-	 * Updates the attack and defend maps.
-	 * @param map The map to update.
-	 * @param toApply The piece set to apply to.
-	 * @param p The underlying position object.
-	 * @param col The player to update the map for.
+	 * Updates the attack and defend maps of the contested squares from the attacks kept by the
+	 * position. Every square gets the values of its attackers, 4 bits each, with the least
+	 * valuable attacker in the lowest bits, which is the order in which doBattle() spends them.
+	 * @param map The map to update, indexed by bitboard square.
+	 * @param colour The player to update the map for.
+	 * @param contested The squares to update.
 	 */
-	private static void updateMap(long[] map, Piece[] toApply, Position p, boolean col) {
-		byte o_col = col ? Piece.BLACK : Piece.WHITE;
-		for (Piece r : toApply) {
-			byte c_loc = r.getPosition(), type;
-			int n_loc = c_loc;
-			if ((type = r.getType()) == Piece.NULL) break;
-			switch (type) {
-			case Piece.PAWN:
-				if (col) {
-					n_loc = c_loc + Position.LEFT_UP_MOVE;
-					map[(n_loc & 0x88) == 0?n_loc:0x78] = (map[(n_loc & 0x88)==0? n_loc:0x78]<<4)+1;
-					n_loc = c_loc + Position.RIGHT_UP_MOVE;
-					map[(n_loc & 0x88) == 0?n_loc:0x78] = (map[(n_loc & 0x88)==0? n_loc:0x78]<<4)+1;
-				} else {
-					n_loc = c_loc + Position.LEFT_DOWN_MOVE;
-					map[(n_loc & 0x88) == 0?n_loc:0x78] = (map[(n_loc & 0x88)==0? n_loc:0x78]<<4)+1;
-					n_loc = c_loc + Position.RIGHT_DOWN_MOVE;
-					map[(n_loc & 0x88) == 0?n_loc:0x78] = (map[(n_loc & 0x88)==0? n_loc:0x78]<<4)+1;
+	private void updateMap(long[] map, byte colour, long contested) {
+		for (long sqs = contested; sqs != 0; sqs &= sqs - 1) map[Long.numberOfTrailingZeros(sqs)] = 0;
+		// the most valuable attackers go in first so that they end up in the highest bits
+		for (int i = 0; i < ATTACKER_TYPES.length; i++){
+			for (long pieces = position.getPieceBoard(ATTACKER_TYPES[i], colour); pieces != 0;
+					pieces &= pieces - 1){
+				long attacked = position.getAttacks(Long.numberOfTrailingZeros(pieces)) & contested;
+				for (; attacked != 0; attacked &= attacked - 1){
+					int sq = Long.numberOfTrailingZeros(attacked);
+					map[sq] = (map[sq] << 4) + ATTACKER_VALUES[i];
 				}
-				break;
-			case Piece.KNIGHT:
-				for (byte d : Position.KNIGHT_MOVES) {
-					n_loc = c_loc + d;
-					map[(n_loc & 0x88) == 0?n_loc:0x78] = (map[(n_loc & 0x88)==0? n_loc:0x78]<<4)+3;
-				}
-				break;
-			case Piece.BISHOP:
-				for (byte d : Position.DIAGONALS) {
-					n_loc = c_loc + d;
-					while ((n_loc & 0x88) == 0) {
-						map[n_loc] = (map[n_loc] << 4) + 3;
-						Piece obstruct = p.getSquareOccupier((byte) n_loc);
-						if (obstruct.getColour() == o_col) break;
-						else if ((type = obstruct.getType()) != Piece.NULL) {
-							// takes care of the "behind the back" pawn moves.
-							if (type == Piece.PAWN && ((col && d > 0) || (!col && d < 0))) {
-								n_loc += d;
-								map[(n_loc & 0x88)==0?n_loc:0x78]=(map[(n_loc & 0x88)==0?n_loc:0x78]<<4)+1;
-							} else if (type != Piece.BISHOP || type != Piece.QUEEN)break;
-						}
-						n_loc += d;
-					}
-				}
-				break;
-			case Piece.ROOK:
-				for (byte d : Position.HORIZONTALS) {
-					n_loc = c_loc + d;
-					while ((n_loc & 0x88) == 0) {
-						map[n_loc] = (map[n_loc] << 4) + 5;
-						Piece obstruct = p.getSquareOccupier((byte) n_loc);
-						if (obstruct.getColour() == o_col) break;
-						else if ((type = obstruct.getType()) != Piece.NULL) 
-							if (type != Piece.QUEEN || type != Piece.ROOK) break;
-						n_loc += d;
-					}
-				}
-				break;
-			case Piece.QUEEN:
-				for (byte d : Position.RADIALS) {
-					n_loc = c_loc + d;
-					while ((n_loc & 0x88) == 0) {
-						map[n_loc] = (map[n_loc] << 4) + 9;
-						Piece obstruct = p.getSquareOccupier((byte) n_loc);
-						if (obstruct.getColour() == o_col)
-							break;
-						else if ((type = obstruct.getType()) != Piece.NULL) {
-							if (type != Piece.BISHOP || type != Piece.ROOK || type != Piece.PAWN) break;
-							if (type == Piece.PAWN && ((d&0x7)!=0&&(d>>4)!=0)&&((col&&d>0)||(!col&&d<0))){
-								n_loc = n_loc + d;
-								map[(n_loc & 0x88)==0?n_loc:0x78]=(map[(n_loc&0x88)==0?n_loc:0x78]<<4)+1;
-								break;
-							}
-							if ((type == Piece.BISHOP) && ((d & 0x7) != 0 || (d >> 4) != 0)) break;
-							if ((type == Piece.ROOK) && !((d & 0x7) != 0 && (d >> 4) != 0)) break;
-						}
-						n_loc += d;
-					}
-				}
-				break;
-			case Piece.KING:
-				for (byte d : Position.RADIALS) {
-					n_loc = c_loc + d;
-					map[(n_loc & 0x88)==0?n_loc:0x78]= (map[(n_loc&0x88)==0?n_loc:0x78]<<4) + 0xe;
-				}
-				break;
 			}
 		}
 	}
 	/**
-	 * Sorts a Lorenz bitstring.
-	 * @param string A lorenz bitstring that is partitioned to 4 bits per index.
-	 * @return A sorted Lorenz bitstring.
+	 * Gathers the pawns of a side into the pawn array of matching length, which is built the first
+	 * time a side has that many pawns.
+	 * @param pieces The pieces of the side.
+	 * @param arrays The pawn arrays of the side, indexed by length.
+	 * @return The pawns of the side, unsorted.
 	 */
-	private static long countingSort(long string){
-		if (string <= 0xf) return string;
-		else{
-			long toReturn = 0;
-			int[] c = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
-			int sum = 0, index = 0;
-			while (string != 0){
-				c[(int)(string & 0xf)] ++;
-				string = string >> 4;
-			}
-			for(int i = c.length - 1; i >= 0; i--){
-				sum += c[i];
-				c[i] = sum;
-			}
-			for(int i = c.length - 1; i >= 0; i--){
-				for(int k = index; k < c[i]; k++) toReturn = (toReturn << 4) + i;
-				index = c[i];
-			}
-			return toReturn;
-		}
+	private static Piece[] collectPawns(Piece[] pieces, Piece[][] arrays){
+		int count = 0;
+		for (Piece q : pieces) if (q.getType() == Piece.PAWN) count++;
+		Piece[] pawns = arrays[count];
+		if (pawns == null) pawns = arrays[count] = new Piece [count];
+		int i = 0;
+		for (Piece q : pieces) if (q.getType() == Piece.PAWN) pawns[i++] = q;
+		return pawns;
 	}
 	/**
 	 * Performs a binary search through a sorted map of pieces.
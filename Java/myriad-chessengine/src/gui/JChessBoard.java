@@ -153,8 +153,7 @@ public class JChessBoard extends JPanel {
 						if (ai_turn) {
 							 tree.setCurrentLeaf(p, prior_move);
                              //tree.NegaMax(p, prior_move, depth);
-							 tree.beginPVS(p, prior_move, depth);
-                             registerAIMove(tree.getBestMove());
+							 registerAIMove(tree.search(SearchLimits.depth(depth)));
 							ai_turn = false;
 						}
 					}
@@ -4,6 +4,7 @@ import java.awt.*;
 import javax.swing.*;
 import rules.*;
 import tables.*;
+import tree.*;
 import debug.*;
 import java.awt.event.*;
 import java.io.*;
@@ -245,8 +246,13 @@ public class Myriad_XSN extends JFrame {
 			notation_pane.append(playerName + " vs. Myriad XSN\n-----------\n");
 	}
 
+	/**
+	 * Starts Myriad XSN.
+	 * @param args The file to keep the transposition table in across runs, if any.
+	 */
 	public static void main(String[] args) {
 		Zobrist.init();
+		if (args.length > 0) Pine.persistTable(new File(args[0]));
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
 				Toolkit.getDefaultToolkit().setDynamicLayout(true);
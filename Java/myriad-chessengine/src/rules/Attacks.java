@@ -0,0 +1,245 @@
+package rules;
+
+import java.util.Random;
+
+/**
+ * This class serves as a static utility class of precomputed attack tables on bitboard squares.
+ * The knight, king and pawn attacks are looked up directly by square. The sliding attacks of rooks
+ * and bishops are looked up with "magic" multiplication: the relevant blockers of a square are
+ * multiplied by a magic number so that the high bits of the product index a table of attack
+ * bitboards. The magic numbers are found with a seeded random search the first time this class is
+ * used, so the tables are always the same. Every table has one more index bit than the number of
+ * relevant blockers, which makes a magic number much quicker to find at the cost of memory.
+ * @author Spork Innovation Technologies
+ */
+public final class Attacks {
+	//----------------------Constants----------------------
+	/** The knight attacks of every square. */
+	private static final long[] KNIGHT = new long[64];
+	/** The king attacks of every square. */
+	private static final long[] KING = new long[64];
+	/** The pawn attacks of every square, for white pawns and then black pawns. */
+	private static final long[][] PAWN = new long[2][64];
+	/** The relevant blockers of a rook on every square. */
+	private static final long[] ROOK_MASK = new long[64];
+	/** The relevant blockers of a bishop on every square. */
+	private static final long[] BISHOP_MASK = new long[64];
+	/** The rook magic numbers of every square. */
+	private static final long[] ROOK_MAGIC = new long[64];
+	/** The bishop magic numbers of every square. */
+	private static final long[] BISHOP_MAGIC = new long[64];
+	/** The shift of the rook magic products of every square. */
+	private static final int[] ROOK_SHIFT = new int[64];
+	/** The shift of the bishop magic products of every square. */
+	private static final int[] BISHOP_SHIFT = new int[64];
+	/** The rook attacks of every square, indexed by the magic product. */
+	private static final long[][] ROOK_TABLE = new long[64][];
+	/** The bishop attacks of every square, indexed by the magic product. */
+	private static final long[][] BISHOP_TABLE = new long[64][];
+	/** The squares strictly between two squares on a line, or 0 if they are not on a line. */
+	private static final long[][] BETWEEN = new long[64][64];
+	/** The file and rank steps of rooks. */
+	private static final int[][] ROOK_STEPS = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } };
+	/** The file and rank steps of bishops. */
+	private static final int[][] BISHOP_STEPS = { { 1, 1 }, { 1, -1 }, { -1, 1 }, { -1, -1 } };
+	/** The file and rank steps of knights. */
+	private static final int[][] KNIGHT_STEPS = { { 1, 2 }, { 2, 1 }, { 2, -1 }, { 1, -2 },
+			{ -1, -2 }, { -2, -1 }, { -2, 1 }, { -1, 2 } };
+	/** The seed of the magic number search. */
+	private static final long MAGIC_SEED = 1995;
+
+	static {
+		for (int sq = 0; sq < 64; sq++) {
+			KNIGHT[sq] = steps(sq, KNIGHT_STEPS);
+			KING[sq] = steps(sq, ROOK_STEPS) | steps(sq, BISHOP_STEPS);
+			PAWN[0][sq] = steps(sq, new int[][] { { -1, 1 }, { 1, 1 } });
+			PAWN[1][sq] = steps(sq, new int[][] { { -1, -1 }, { 1, -1 } });
+			ROOK_MASK[sq] = relevantBlockers(sq, ROOK_STEPS);
+			BISHOP_MASK[sq] = relevantBlockers(sq, BISHOP_STEPS);
+		}
+		Random rdm = new Random(MAGIC_SEED);
+		for (int sq = 0; sq < 64; sq++) {
+			ROOK_SHIFT[sq] = 63 - Long.bitCount(ROOK_MASK[sq]);
+			ROOK_TABLE[sq] = new long[1 << (64 - ROOK_SHIFT[sq])];
+			ROOK_MAGIC[sq] = findMagic(sq, ROOK_MASK[sq], ROOK_SHIFT[sq], ROOK_STEPS,
+					ROOK_TABLE[sq], rdm);
+			BISHOP_SHIFT[sq] = 63 - Long.bitCount(BISHOP_MASK[sq]);
+			BISHOP_TABLE[sq] = new long[1 << (64 - BISHOP_SHIFT[sq])];
+			BISHOP_MAGIC[sq] = findMagic(sq, BISHOP_MASK[sq], BISHOP_SHIFT[sq], BISHOP_STEPS,
+					BISHOP_TABLE[sq], rdm);
+		}
+		for (int a = 0; a < 64; a++) {
+			for (int b = 0; b < 64; b++) {
+				long ab = (1L << a) | (1L << b);
+				if ((rookAttacks(a, 0) & (1L << b)) != 0)
+					BETWEEN[a][b] = rookAttacks(a, ab) & rookAttacks(b, ab);
+				else if ((bishopAttacks(a, 0) & (1L << b)) != 0)
+					BETWEEN[a][b] = bishopAttacks(a, ab) & bishopAttacks(b, ab);
+			}
+		}
+	}
+	//----------------------End of Constants----------------------
+
+	//----------------------Methods----------------------
+	/**
+	 * Returns the squares attacked by a knight.
+	 * @param sq The bitboard square of the knight.
+	 * @return The bitboard of the attacked squares.
+	 */
+	public static long knightAttacks(int sq) {
+		return KNIGHT[sq];
+	}
+	/**
+	 * Returns the squares attacked by a king.
+	 * @param sq The bitboard square of the king.
+	 * @return The bitboard of the attacked squares.
+	 */
+	public static long kingAttacks(int sq) {
+		return KING[sq];
+	}
+	/**
+	 * Returns the squares attacked by a pawn.
+	 * @param sq The bitboard square of the pawn.
+	 * @param colour The colour of the pawn, Piece.WHITE or Piece.BLACK.
+	 * @return The bitboard of the attacked squares.
+	 */
+	public static long pawnAttacks(int sq, int colour) {
+		return PAWN[colour == Piece.WHITE ? 0 : 1][sq];
+	}
+	/**
+	 * Returns the squares attacked by a rook.
+	 * @param sq The bitboard square of the rook.
+	 * @param occupancy The bitboard of all the pieces on the board.
+	 * @return The bitboard of the attacked squares, including the first blocker of every line.
+	 */
+	public static long rookAttacks(int sq, long occupancy) {
+		return ROOK_TABLE[sq][(int) (((occupancy & ROOK_MASK[sq]) * ROOK_MAGIC[sq]) >>> ROOK_SHIFT[sq])];
+	}
+	/**
+	 * Returns the squares attacked by a bishop.
+	 * @param sq The bitboard square of the bishop.
+	 * @param occupancy The bitboard of all the pieces on the board.
+	 * @return The bitboard of the attacked squares, including the first blocker of every line.
+	 */
+	public static long bishopAttacks(int sq, long occupancy) {
+		return BISHOP_TABLE[sq][(int) (((occupancy & BISHOP_MASK[sq]) * BISHOP_MAGIC[sq]) >>> BISHOP_SHIFT[sq])];
+	}
+	/**
+	 * Returns the squares attacked by a queen.
+	 * @param sq The bitboard square of the queen.
+	 * @param occupancy The bitboard of all the pieces on the board.
+	 * @return The bitboard of the attacked squares, including the first blocker of every line.
+	 */
+	public static long queenAttacks(int sq, long occupancy) {
+		return rookAttacks(sq, occupancy) | bishopAttacks(sq, occupancy);
+	}
+	/**
+	 * Returns the squares strictly between two squares.
+	 * @param a The first bitboard square.
+	 * @param b The second bitboard square.
+	 * @return The bitboard of the squares between, 0 if the squares are not on a line.
+	 */
+	public static long between(int a, int b) {
+		return BETWEEN[a][b];
+	}
+	//----------------------End of Methods----------------------
+
+	//----------------------Helper Methods----------------------
+	/**
+	 * Returns the squares one step away from a square.
+	 * @param sq The bitboard square.
+	 * @param steps The file and rank steps.
+	 * @return The bitboard of the squares reached.
+	 */
+	private static long steps(int sq, int[][] steps) {
+		long board = 0;
+		for (int[] step : steps) {
+			int file = (sq & 7) + step[0], rank = (sq >> 3) + step[1];
+			if (file >= 0 && file < 8 && rank >= 0 && rank < 8)
+				board |= 1L << (rank * 8 + file);
+		}
+		return board;
+	}
+	/**
+	 * Returns the squares attacked by a sliding piece by walking its lines, used to fill the
+	 * tables.
+	 * @param sq The bitboard square of the piece.
+	 * @param occupancy The bitboard of all the pieces on the board.
+	 * @param steps The file and rank steps of the piece.
+	 * @return The bitboard of the attacked squares.
+	 */
+	private static long slide(int sq, long occupancy, int[][] steps) {
+		long board = 0;
+		for (int[] step : steps) {
+			int file = (sq & 7) + step[0], rank = (sq >> 3) + step[1];
+			while (file >= 0 && file < 8 && rank >= 0 && rank < 8) {
+				long bit = 1L << (rank * 8 + file);
+				board |= bit;
+				if ((occupancy & bit) != 0)
+					break;
+				file += step[0];
+				rank += step[1];
+			}
+		}
+		return board;
+	}
+	/**
+	 * Returns the squares whose occupancy changes the attacks of a sliding piece, which are its
+	 * lines without the last square of each.
+	 * @param sq The bitboard square of the piece.
+	 * @param steps The file and rank steps of the piece.
+	 * @return The bitboard of the relevant blockers.
+	 */
+	private static long relevantBlockers(int sq, int[][] steps) {
+		long board = 0;
+		for (int[] step : steps) {
+			int file = (sq & 7) + step[0], rank = (sq >> 3) + step[1];
+			while (file + step[0] >= 0 && file + step[0] < 8 && rank + step[1] >= 0
+					&& rank + step[1] < 8) {
+				board |= 1L << (rank * 8 + file);
+				file += step[0];
+				rank += step[1];
+			}
+		}
+		return board;
+	}
+	/**
+	 * Finds a magic number of a square and fills its attack table with it.
+	 * @param sq The bitboard square.
+	 * @param mask The relevant blockers of the square.
+	 * @param shift The shift of the magic products.
+	 * @param steps The file and rank steps of the piece.
+	 * @param table The attack table to fill.
+	 * @param rdm The random number generator to draw the candidates from.
+	 * @return The magic number.
+	 */
+	private static long findMagic(int sq, long mask, int shift, int[][] steps, long[] table,
+			Random rdm) {
+		int size = 1 << Long.bitCount(mask);
+		long[] blockers = new long[size], attacks = new long[size];
+		int[] used = new int[table.length];
+		long subset = 0;
+		for (int i = 0; i < size; i++) {
+			blockers[i] = subset;
+			attacks[i] = slide(sq, subset, steps);
+			subset = (subset - mask) & mask;
+		}
+		for (int attempt = 1;; attempt++) {
+			long magic = rdm.nextLong() & rdm.nextLong() & rdm.nextLong();
+			if (Long.bitCount((mask * magic) & 0xff00000000000000L) < 6)
+				continue;
+			boolean fits = true;
+			for (int i = 0; i < size && fits; i++) {
+				int index = (int) ((blockers[i] * magic) >>> shift);
+				if (used[index] != attempt) {
+					used[index] = attempt;
+					table[index] = attacks[i];
+				} else if (table[index] != attacks[i])
+					fits = false;
+			}
+			if (fits)
+				return magic;
+		}
+	}
+	//----------------------End of Helper Methods----------------------
+}
\ No newline at end of file
@@ -0,0 +1,82 @@
+package rules;
+
+/**
+ * This class serves as a static utility class for Myriad's bitboard representation. A bitboard is
+ * a long where bit i is set if square i is occupied. Squares are numbered from 0 (a1) to 63 (h8),
+ * rank by rank, which is the 0x88 coordinate with the "off board" bit squeezed out.
+ *
+ * The piece bitboards of a position are stored in an array of 12 longs, indexed by
+ * <code>pieceIndex(type, colour)</code>; white pieces take the indices 0 to 5 and black pieces 6
+ * to 11, in the order of the piece constants.
+ * @author Spork Innovation Technologies
+ */
+public final class Bitboard {
+	//----------------------Constants----------------------
+	/** The mailbox value for an empty square. */
+	public static final byte EMPTY = -1;
+	/** The number of piece bitboards in a position. */
+	public static final int PIECE_BOARDS = 12;
+	/** The offset of the black bitboards in the piece bitboard array. */
+	public static final int BLACK_OFFSET = 6;
+	/** The bitboard of the a-file. */
+	public static final long FILE_A = 0x0101010101010101L;
+	/** The bitboard of the h-file. */
+	public static final long FILE_H = 0x8080808080808080L;
+	/** The bitboard of the first rank. */
+	public static final long RANK_1 = 0xffL;
+	/** The bitboard of the eighth rank. */
+	public static final long RANK_8 = 0xff00000000000000L;
+	//----------------------End of Constants----------------------
+
+	//----------------------Methods----------------------
+	/**
+	 * Converts a 0x88 coordinate into a bitboard square.
+	 * @param x88 The 0x88 coordinate, it must be on the board.
+	 * @return The bitboard square, between 0 and 63.
+	 */
+	public static int toSquare(int x88){
+		return (x88 + (x88 & 7)) >> 1;
+	}
+	/**
+	 * Converts a bitboard square into a 0x88 coordinate.
+	 * @param square The bitboard square, between 0 and 63.
+	 * @return The 0x88 coordinate of the square.
+	 */
+	public static byte toX88(int square){
+		return (byte) (square + (square & ~7));
+	}
+	/**
+	 * Returns the bitboard with only the given 0x88 square set.
+	 * @param x88 The 0x88 coordinate, it must be on the board.
+	 * @return The bitboard with only that square set.
+	 */
+	public static long bit(int x88){
+		return 1L << toSquare(x88);
+	}
+	/**
+	 * Returns the index of the piece bitboard for a given type and colour.
+	 * @param type The type of the piece, as per the constants in the Piece class.
+	 * @param colour The colour of the piece, Piece.WHITE or Piece.BLACK.
+	 * @return The index of the bitboard, between 0 and 11.
+	 */
+	public static int pieceIndex(int type, int colour){
+		return colour == Piece.WHITE ? type : type + BLACK_OFFSET;
+	}
+	/**
+	 * Returns the piece type stored at a piece bitboard index.
+	 * @param index The index of the bitboard, between 0 and 11.
+	 * @return The type of the piece.
+	 */
+	public static byte typeOf(int index){
+		return (byte) (index < BLACK_OFFSET ? index : index - BLACK_OFFSET);
+	}
+	/**
+	 * Returns the colour stored at a piece bitboard index.
+	 * @param index The index of the bitboard, between 0 and 11.
+	 * @return The colour of the piece.
+	 */
+	public static byte colourOf(int index){
+		return index < BLACK_OFFSET ? Piece.WHITE : Piece.BLACK;
+	}
+	//----------------------End of Methods----------------------
+}
\ No newline at end of file
@@ -4,6 +4,12 @@ package rules;
  * Myriad's representation of chess moves, each chess move consists of a starting square
  * an ending square and an appropriate modifier. Once a Move object has been instantiated
  * it cannot be changed!
+ * 
+ * The search works with moves packed into a single int instead, so that it does not create
+ * objects while generating moves. Bits 0 to 6 hold the starting square, bits 7 to 13 the ending
+ * square, bits 14 to 18 the modifier and bits 19 to 21 the type of the captured piece plus one
+ * (0 if nothing is captured). The static methods of this class pack and unpack them, and
+ * toInt() and toMove() convert between the two forms.
  * @author Jesse Wang
  */
 public final class Move {
@@ -27,6 +33,14 @@ public final class Move {
 	/** A constant array storing all special castling moves. */
 	public static final Move[] CASTLE = 
 		{WHITE_K_SIDE_CASTLING,BLACK_K_SIDE_CASTLING,WHITE_Q_SIDE_CASTLING,BLACK_Q_SIDE_CASTLING};
+	/** The packed move that stands for "no move", a1 to a1 is never a legal move. */
+	public static final int NO_MOVE = 0;
+	/** The number of bits the ending square is shifted by in a packed move. */
+	private static final int END_SHIFT = 7;
+	/** The number of bits the modifier is shifted by in a packed move. */
+	private static final int MODIFIER_SHIFT = 14;
+	/** The number of bits the captured piece is shifted by in a packed move. */
+	private static final int CAPTURED_SHIFT = 19;
 	//----------------------End of Constants----------------------
 
 	//----------------------Constructors----------------------
@@ -96,6 +110,15 @@ public final class Move {
 	public byte getModifier(){
 		return modifiers;
 	}
+	/**
+	 * Packs this move into an int.
+	 * @param p The position the move is made in, used to look up the captured piece.
+	 * @return The packed move.
+	 */
+	public int toInt(Position p){
+		byte captured = modifiers == 5 ? Piece.PAWN : p.getSquareOccupier(end_sq).getType();
+		return pack(start_sq, end_sq, modifiers, captured);
+	}
 	/**
 	 * Returns a string describing this move.
 	 * @return A string describing this move. 
@@ -146,6 +169,58 @@ public final class Move {
 		return s;
 	}
 	// utility methods
+	/**
+	 * Packs a move into an int.
+	 * @param startsq The starting square.
+	 * @param endsq The ending square.
+	 * @param modifier The modifier, as per the constructor.
+	 * @param captured The type of the captured piece, or Piece.NULL if nothing is captured.
+	 * @return The packed move.
+	 */
+	public static int pack(int startsq, int endsq, int modifier, int captured){
+		return startsq | (endsq << END_SHIFT) | (modifier << MODIFIER_SHIFT)
+				| ((captured + 1) << CAPTURED_SHIFT);
+	}
+	/**
+	 * Returns the starting square of a packed move.
+	 * @param move The packed move.
+	 * @return The starting square.
+	 */
+	public static byte startOf(int move){
+		return (byte) (move & 0x7f);
+	}
+	/**
+	 * Returns the ending square of a packed move.
+	 * @param move The packed move.
+	 * @return The ending square.
+	 */
+	public static byte endOf(int move){
+		return (byte) ((move >>> END_SHIFT) & 0x7f);
+	}
+	/**
+	 * Returns the modifier of a packed move.
+	 * @param move The packed move.
+	 * @return The modifier.
+	 */
+	public static byte modifierOf(int move){
+		return (byte) ((move >>> MODIFIER_SHIFT) & 0x1f);
+	}
+	/**
+	 * Returns the type of the piece captured by a packed move.
+	 * @param move The packed move.
+	 * @return The type of the captured piece, or Piece.NULL if nothing is captured.
+	 */
+	public static byte capturedOf(int move){
+		return (byte) (((move >>> CAPTURED_SHIFT) & 0x7) - 1);
+	}
+	/**
+	 * Unpacks a packed move into a Move object.
+	 * @param move The packed move.
+	 * @return The move object.
+	 */
+	public static Move toMove(int move){
+		return new Move(startOf(move), endOf(move), modifierOf(move));
+	}
 	public static Move toMove(String m_s){
 		if (m_s.equals("O-O (w)")) return WHITE_K_SIDE_CASTLING;
 		else if (m_s.equals("O-O (b)")) return BLACK_K_SIDE_CASTLING;
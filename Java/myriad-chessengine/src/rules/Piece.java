@@ -43,6 +43,13 @@ public final class Piece {
 	private static final short ROOK_VALUE = 500;
 	private static final short QUEEN_VALUE = 975;
 	private static final Piece NULL_PIECE = new Piece ((byte)-1, (byte)-1, (byte)0);
+	/** Shared instances of every piece on every square, indexed by bitboard index and square. */
+	private static final Piece[][] SHARED = new Piece[Bitboard.PIECE_BOARDS][64];
+	static {
+		for (int i = 0; i < Bitboard.PIECE_BOARDS; i++)
+			for (int sq = 0; sq < 64; sq++)
+				SHARED[i][sq] = new Piece(Bitboard.toX88(sq), Bitboard.typeOf(i), Bitboard.colourOf(i));
+	}
 	//----------------------End of Constants----------------------
 
 	//----------------------Constructors----------------------      
@@ -132,8 +139,27 @@ public final class Piece {
 	public static Piece getNullPiece(){
 		return NULL_PIECE;
 	}
+	/**
+	 * Returns a shared piece object of the given type and colour on the given square. Since pieces
+	 * are immutable, the same object can be handed out to every caller, so no object is created.
+	 * @param x88loc the 0x88 location of the piece, it must be on the board.
+	 * @param ptype the type of the piece, not the null type.
+	 * @param colour the colour of the piece.
+	 * @return The shared piece object.
+	 */
+	public static Piece getPiece(byte x88loc, byte ptype, byte colour){
+		return SHARED[Bitboard.pieceIndex(ptype, colour)][Bitboard.toSquare(x88loc)];
+	}
 	
 	public short getPieceValue(){
+		return valueOf(ptype);
+	}
+	/**
+	 * Returns the value of a piece type.
+	 * @param ptype the type of the piece, according to the constants.
+	 * @return The value of the type, Short.MAX_VALUE for the king and 0 for the null type.
+	 */
+	public static short valueOf(byte ptype){
 		if(ptype == PAWN) return PAWN_VALUE;
 		else if(ptype == ROOK) return ROOK_VALUE;
 		else if(ptype == QUEEN) return QUEEN_VALUE;
@@ -1,18 +1,26 @@
 package rules;
 
-import java.util.*;
+import java.util.Arrays;
 import eval.Lorenz;
 import tables.Zobrist;
-import tree.Pine;
 
 /**
  * Myriad's representation of a particular position. This is a basic class that
  * underlines the properties of a position, such as the availability of
  * castling, 50 move rule count, etc.
  * 
- * The piece-centric board representation is used, with coordinates used by the
- * "0x88" algorithm. Note that this is an immutable object. Once an object is
- * created via a constructor it cannot be changed!
+ * The board is stored as 12 piece bitboards, two occupancy bitboards and a
+ * square-to-piece mailbox (see the Bitboard class). Coordinates passed in and
+ * out of this class still use the "0x88" algorithm, and the piece-centric
+ * Piece[] maps are kept as a view that is built from the bitboards on demand.
+ * 
+ * A position is used in one of two modes. A position made by a constructor
+ * or by makeMove() is immutable: once created it cannot be changed, and
+ * makeMove() returns a new position instead. A search board, made by
+ * toSearchBoard(), is mutable: moves are made and taken back on it in place
+ * with make() and unmake(), so that a search does not create a position per
+ * node. A search board belongs to one thread, and whatever it returns may
+ * change with its next move.
  * 
  * @author Spork Innovation Technologies
  */
@@ -27,29 +35,13 @@ public final class Position {
 	 */
 	private byte ply_count;
 	/**
-	 * A flag describing the future availability of white's castling kingside.
-	 * E.g. whether or not the king or rooks have already moved. This does not
-	 * mean that castling is a legal move in <i>this</i> position.
-	 */
-	private boolean w_kingside;
-	/**
-	 * A flag describing the future availability of white's castling queenside.
-	 * E.g. whether or not the king or rooks have already moved. This does not
-	 * mean that castling is a legal move in <i>this</i> position.
-	 */
-	private boolean b_kingside;
-	/**
-	 * A flag describing the future availability of black's castling kingside.
-	 * E.g. whether or not the king or rooks have already moved. This does not
-	 * mean that castling is a legal move in <i>this</i> position.
-	 */
-	private boolean w_queenside;
-	/**
-	 * A flag describing the future availability of black's castling queenside.
-	 * E.g. whether or not the king or rooks have already moved. This does not
-	 * mean that castling is a legal move in <i>this</i> position.
+	 * The flags describing the future availability of castling, one bit per
+	 * right in the order of getCastlingRights(): bit 0 for white kingside, bit
+	 * 1 for black kingside, bit 2 for white queenside and bit 3 for black
+	 * queenside. E.g. whether or not the king or rooks have already moved. This
+	 * does not mean that castling is a legal move in <i>this</i> position.
 	 */
-	private boolean b_queenside;
+	private byte castling;
 	/**
 	 * A byte describing the location of the "en passant" square in 0x88
 	 * coordinates. This value is -1 if there is no "en passant" square
@@ -61,11 +53,44 @@ public final class Position {
 	 */
 	private boolean is_White_to_Move;
 	/**
-	 * Stores the current location of all the white pieces on the board.
+	 * Stores the bitboards of every piece type and colour, indexed by
+	 * Bitboard.pieceIndex(type, colour).
+	 */
+	private long[] piece_boards;
+	/**
+	 * Stores the bitboard of all the squares occupied by white pieces.
+	 */
+	private long white_occupancy;
+	/**
+	 * Stores the bitboard of all the squares occupied by black pieces.
+	 */
+	private long black_occupancy;
+	/**
+	 * Stores the bitboard index of the piece standing on every square, or
+	 * Bitboard.EMPTY if the square is empty. Indexed by the bitboard square.
+	 */
+	private byte[] mailbox;
+	/**
+	 * Stores the squares attacked by the piece standing on every square, or 0
+	 * if the square is empty. Indexed by the bitboard square and kept up to
+	 * date as moves are made and unmade, see attacks_changed.
+	 */
+	private long[] attacks;
+	/**
+	 * The squares whose occupancy changed since the attacks were last brought
+	 * up to date. Moves only add to it, and the attacks affected by these
+	 * squares are patched the next time they are read, so move generation
+	 * and perft do not pay for them.
+	 */
+	private long attacks_changed;
+	/**
+	 * A view of all the white pieces on the board, with the king first. It is
+	 * built from the bitboards the first time it is needed.
 	 */
 	private Piece[] white_map;
 	/**
-	 * Stores the current location of all the white pieces on the board.
+	 * A view of all the black pieces on the board, with the king first. It is
+	 * built from the bitboards the first time it is needed.
 	 */
 	private Piece[] black_map;
 	/**
@@ -80,9 +105,68 @@ public final class Position {
 	 * Stores the Zobrist hash of the current position. Used for transposition
 	 * tables.
 	 */
-	private final long zobrist;
-	public Move prior_move;
-	public final Lorenz lz;
+	private long zobrist;
+	/**
+	 * Stores the Zobrist hash of the pawns only. Used for the pawn hash table
+	 * of the evaluation.
+	 */
+	private long pawn_zobrist;
+	/**
+	 * The material of each side, the sum of the values of all pieces but the
+	 * king. Kept up to date as captures and promotions are made and unmade.
+	 */
+	private int white_material, black_material;
+	/**
+	 * The packed move that led to this position, or Move.NO_MOVE if it is
+	 * not known.
+	 */
+	private int prior_move;
+	/**
+	 * The evaluation features of this position, built only when asked for,
+	 * see getLorenz(). A search board keeps the same object and resets it.
+	 */
+	private Lorenz lz;
+	/** Whether or not lz is set to the current position. */
+	private boolean lz_current;
+	/**
+	 * The squares a piece of the side to move would give check from, per
+	 * piece type, see givesCheck(). Built when first needed.
+	 */
+	private long[] check_squares;
+	/**
+	 * The pieces of the side to move that stand alone between one of its
+	 * sliding pieces and the opponent's king, and give a discovered check by
+	 * leaving the line.
+	 */
+	private long discovered_candidates;
+	/** Whether or not check_squares and discovered_candidates are current. */
+	private boolean check_info_current;
+	// ----------------------Search Board Variables----------------------
+	/**
+	 * The number of moves made on this search board that have not been
+	 * unmade yet.
+	 */
+	private int ply;
+	/** The packed moves made on this search board, one per ply. */
+	private int[] undo_move;
+	/** The packed prior moves to restore when unmaking, one per ply. */
+	private int[] undo_prior;
+	/** The bitboard index of the captured pieces, one per ply. */
+	private byte[] undo_captured;
+	/** The en passant squares to restore when unmaking, one per ply. */
+	private byte[] undo_eps;
+	/** The castling flags to restore when unmaking, one per ply. */
+	private byte[] undo_castling;
+	/** The 50 move rule counters to restore when unmaking, one per ply. */
+	private byte[] undo_fifty;
+	/** The Zobrist hashes to restore when unmaking, one per ply. */
+	private long[] undo_hash;
+	/** The pawn hashes to restore when unmaking, one per ply. */
+	private long[] undo_pawn_hash;
+	/** The buffer that validateMove() generates into, built when first needed. */
+	private int[] validate_buffer;
+	/** The gains of the exchange that see() plays out, built when first needed. */
+	private int[] see_gains;
 	// ----------------------End of Instance Variables----------------------
 	// ----------------------Constants----------------------
 	/** The distance between 1 up move. */
@@ -129,6 +213,38 @@ public final class Position {
 	 * reached yet.
 	 */
 	public static final int NO_RESULT = -2;
+	/**
+	 * The maximum number of moves that can be made on a search board before
+	 * they are unmade.
+	 */
+	public static final int MAX_PLY = 128;
+	/**
+	 * The size of a move buffer that can hold all the moves of any position.
+	 */
+	public static final int MAX_MOVES = 256;
+	/**
+	 * The material of both sides in the initial position, which is the
+	 * material of the opening phase.
+	 */
+	public static final int TOTAL_MATERIAL = 8170;
+	/** The game phase of the opening, the phase of the bare kings is 0. */
+	public static final int MAX_PHASE = 256;
+	/** The bitboard of the dark squares, a1 being one of them. */
+	private static final long DARK_SQUARES = 0xaa55aa55aa55aa55L;
+	/** The generator flag for captures, en passant and promotions. */
+	private static final int GEN_CAPTURES = 1;
+	/** The generator flag for all the other moves. */
+	private static final int GEN_QUIETS = 2;
+	/** The generator flag for all moves. */
+	private static final int GEN_ALL = GEN_CAPTURES | GEN_QUIETS;
+	/**
+	 * The value of the king in static exchanges, more than all the other
+	 * pieces together, so that capturing it ends the exchange.
+	 */
+	public static final int SEE_KING_VALUE = 20000;
+	/** The piece types from the least to the most valuable. */
+	private static final byte[] SEE_ORDER = { Piece.PAWN, Piece.KNIGHT,
+			Piece.BISHOP, Piece.ROOK, Piece.QUEEN, Piece.KING };
 
 	// ----------------------End of Constants----------------------
 
@@ -158,16 +274,12 @@ public final class Position {
 		ply_count = fifty_move;
 		half_moves = h_moves;
 		en_passant_square = epsq;
-		w_kingside = castling_rights[0];
-		b_kingside = castling_rights[1];
-		w_queenside = castling_rights[2];
-		b_queenside = castling_rights[3];
-		white_map = w_map;
-		black_map = b_map;
+		castling = toCastlingFlags(castling_rights);
+		setPieces(w_map, b_map);
 		is_White_to_Move = whiteturn;
-		zobrist = Zobrist.createinitialhash(white_map, black_map,
+		zobrist = Zobrist.createinitialhash(w_map, b_map,
 				castling_rights, en_passant_square);
-		lz = new Lorenz(this);
+		pawn_zobrist = Zobrist.createpawnhash(w_map, b_map);
 	}
 
 	/**
@@ -178,13 +290,10 @@ public final class Position {
 		ply_count = 0;
 		half_moves = 0;
 		en_passant_square = -1;
-		w_kingside = true;
-		b_kingside = true;
-		w_queenside = true;
-		b_queenside = true;
+		castling = 0xf;
 		is_White_to_Move = true;
-		white_map = new Piece[16];
-		black_map = new Piece[16];
+		Piece[] white_map = new Piece[16];
+		Piece[] black_map = new Piece[16];
 		for (int i = 0; i < 8; i++) {
 			white_map[i] = new Piece((byte) (0x10 + i), Piece.PAWN, Piece.WHITE);
 			black_map[i] = new Piece((byte) (0x60 + i), Piece.PAWN, Piece.BLACK);
@@ -207,49 +316,37 @@ public final class Position {
 		temp = black_map[12];
 		black_map[12] = black_map[0];
 		black_map[0] = temp;
+		setPieces(white_map, black_map);
 		zobrist = Zobrist.createinitialhash(white_map, black_map,
 				getCastlingRights(), en_passant_square);
-		lz = new Lorenz(this);
+		pawn_zobrist = Zobrist.createpawnhash(white_map, black_map);
 	}
 
 	/**
-	 * Constructor: Constructs a board objects with the following parameters:
+	 * Copy Constructor: Constructs a copy of another position. The copy owns
+	 * its own bitboards and mailbox, so it can have moves applied to it
+	 * without affecting the original.
 	 * 
-	 * @param fifty_move
-	 *            The 50 move rule counter.
-	 * @param three_fold
-	 *            The 3 fold repetition counter.
-	 * @param epsq
-	 *            The en passant square.
-	 * @param castling_rights
-	 *            An array storing the castling rights, with index 0 being white
-	 *            to the kingside, 1 being black to the kingside, 2 being white
-	 *            to the queenside, 3 being black to the queenside.
-	 * @param whiteturn
-	 *            If it is currently white to move.
-	 * @param w_map
-	 *            An array containing all the current white pieces.
-	 * @param b_map
-	 *            An array containing all the current black pieces.
-	 * @param new_hash
-	 *            The appropriate new Zobrist hash.
+	 * @param p
+	 *            The position to copy.
 	 */
-	private Position(byte fifty_move, byte epsq, boolean[] castling_rights,
-			boolean whiteturn, Piece[] w_map, Piece[] b_map, long new_hash,
-			Move move, short h_moves) {
-		ply_count = fifty_move;
-		half_moves = h_moves;
-		en_passant_square = epsq;
-		w_kingside = castling_rights[0];
-		b_kingside = castling_rights[1];
-		w_queenside = castling_rights[2];
-		b_queenside = castling_rights[3];
-		white_map = w_map;
-		black_map = b_map;
-		is_White_to_Move = whiteturn;
-		zobrist = new_hash;
-		prior_move = move;
-		lz = new Lorenz(this);
+	private Position(Position p) {
+		ply_count = p.ply_count;
+		half_moves = p.half_moves;
+		en_passant_square = p.en_passant_square;
+		castling = p.castling;
+		is_White_to_Move = p.is_White_to_Move;
+		piece_boards = Arrays.copyOf(p.piece_boards, p.piece_boards.length);
+		mailbox = Arrays.copyOf(p.mailbox, p.mailbox.length);
+		attacks = Arrays.copyOf(p.attacks, p.attacks.length);
+		attacks_changed = p.attacks_changed;
+		white_occupancy = p.white_occupancy;
+		black_occupancy = p.black_occupancy;
+		zobrist = p.zobrist;
+		pawn_zobrist = p.pawn_zobrist;
+		white_material = p.white_material;
+		black_material = p.black_material;
+		prior_move = p.prior_move;
 	}
 
 	// ----------------------End of Constructors----------------------
@@ -264,6 +361,16 @@ public final class Position {
 		return zobrist;
 	}
 
+	/**
+	 * Gets the Zobrist hash of the pawns of this Position object, which is
+	 * the same for all positions with the same pawn structure.
+	 * 
+	 * @return the pawn hash of this Position object.
+	 */
+	public long getPawnHash() {
+		return pawn_zobrist;
+	}
+
 	/**
 	 * Gets the castling rights of a board in the order specified in the
 	 * Constructor.
@@ -271,10 +378,281 @@ public final class Position {
 	 * @returns The castling rights of this position.
 	 */
 	public boolean[] getCastlingRights() {
-		boolean[] toReturn = { w_kingside, b_kingside, w_queenside, b_queenside };
+		boolean[] toReturn = { (castling & 1) != 0, (castling & 2) != 0,
+				(castling & 4) != 0, (castling & 8) != 0 };
 		return toReturn;
 	}
 
+	/**
+	 * Returns the evaluation features of this position. They are built the
+	 * first time they are asked for, so positions that are never evaluated
+	 * never pay for them. A search board resets its Lorenz object the first
+	 * time it is asked for after a move is made or unmade, so the object
+	 * returned earlier changes with the board.
+	 * 
+	 * @return The Lorenz features of this position.
+	 */
+	public Lorenz getLorenz() {
+		if (lz == null)
+			lz = new Lorenz(this);
+		else if (!lz_current)
+			lz.reset(this);
+		lz_current = true;
+		return lz;
+	}
+
+	/**
+	 * Returns a mutable copy of this position to search with. Moves are made
+	 * and unmade on a search board in place with make() and unmake(), backed
+	 * by an undo stack that is allocated once, so no objects are created per
+	 * move. A search board can go MAX_PLY moves deep.
+	 * 
+	 * @return A new search board set to this position.
+	 */
+	public Position toSearchBoard() {
+		Position board = new Position(this);
+		board.undo_move = new int[MAX_PLY];
+		board.undo_prior = new int[MAX_PLY];
+		board.undo_captured = new byte[MAX_PLY];
+		board.undo_eps = new byte[MAX_PLY];
+		board.undo_castling = new byte[MAX_PLY];
+		board.undo_fifty = new byte[MAX_PLY];
+		board.undo_hash = new long[MAX_PLY];
+		board.undo_pawn_hash = new long[MAX_PLY];
+		return board;
+	}
+
+	/**
+	 * Makes a move on this search board in place. The move can be taken back
+	 * with unmake().
+	 * 
+	 * @param m
+	 *            The move to make.
+	 * @throws IllegalStateException
+	 *             If this position is not a search board, or if the undo
+	 *             stack is full.
+	 */
+	public void make(Move m) {
+		make(m.toInt(this));
+	}
+
+	/**
+	 * Makes a packed move on this search board in place. The move can be taken
+	 * back with unmake().
+	 * 
+	 * @param move
+	 *            The packed move to make.
+	 * @throws IllegalStateException
+	 *             If this position is not a search board, or if the undo
+	 *             stack is full.
+	 */
+	public void make(int move) {
+		if (undo_move == null)
+			throw new IllegalStateException("Not a search board.");
+		if (ply == MAX_PLY)
+			throw new IllegalStateException("Search board is too deep.");
+		undo_move[ply] = move;
+		undo_prior[ply] = prior_move;
+		undo_captured[ply] = mailbox[Bitboard.toSquare(Move.endOf(move))];
+		undo_eps[ply] = en_passant_square;
+		undo_castling[ply] = castling;
+		undo_fifty[ply] = ply_count;
+		undo_hash[ply] = zobrist;
+		undo_pawn_hash[ply] = pawn_zobrist;
+		ply++;
+		applyMove(move);
+	}
+
+	/**
+	 * Makes a null move on this search board in place: the side to move
+	 * passes, and the en passant square is cleared. The null move can be
+	 * taken back with unmake(). It must not be made in check.
+	 * 
+	 * @throws IllegalStateException
+	 *             If this position is not a search board, or if the undo
+	 *             stack is full.
+	 */
+	public void makeNullMove() {
+		if (undo_move == null)
+			throw new IllegalStateException("Not a search board.");
+		if (ply == MAX_PLY)
+			throw new IllegalStateException("Search board is too deep.");
+		undo_move[ply] = Move.NO_MOVE;
+		undo_prior[ply] = prior_move;
+		undo_captured[ply] = Bitboard.EMPTY;
+		undo_eps[ply] = en_passant_square;
+		undo_castling[ply] = castling;
+		undo_fifty[ply] = ply_count;
+		undo_hash[ply] = zobrist;
+		undo_pawn_hash[ply] = pawn_zobrist;
+		ply++;
+		zobrist = Zobrist.xornullmove(Zobrist.xorepsq(zobrist,
+				en_passant_square, (byte) -1));
+		en_passant_square = -1;
+		ply_count++;
+		is_White_to_Move = !is_White_to_Move;
+		prior_move = Move.NO_MOVE;
+		half_moves++;
+		clearCache();
+	}
+
+	/**
+	 * Takes back the last move made on this search board, which may be a
+	 * null move.
+	 * 
+	 * @throws IllegalStateException
+	 *             If there is no move to take back.
+	 */
+	public void unmake() {
+		if (ply == 0)
+			throw new IllegalStateException("No move to unmake.");
+		ply--;
+		int move = undo_move[ply];
+		if (move == Move.NO_MOVE) {
+			is_White_to_Move = !is_White_to_Move;
+			prior_move = undo_prior[ply];
+			en_passant_square = undo_eps[ply];
+			ply_count = undo_fifty[ply];
+			zobrist = undo_hash[ply];
+			half_moves--;
+			clearCache();
+			return;
+		}
+		byte end = Move.endOf(move), mod = Move.modifierOf(move);
+		int s_sq = Bitboard.toSquare(Move.startOf(move)), e_sq = Bitboard.toSquare(end);
+		is_White_to_Move = !is_White_to_Move;
+		byte c_col = is_White_to_Move ? Piece.WHITE : Piece.BLACK;
+		switch (mod) {
+		case 1:
+			movePiece(piece_boards, mailbox, Bitboard.toSquare(6), Bitboard.toSquare(4));
+			break;
+		case 2:
+			movePiece(piece_boards, mailbox, Bitboard.toSquare(0x76), Bitboard.toSquare(0x74));
+			break;
+		case 3:
+			movePiece(piece_boards, mailbox, Bitboard.toSquare(2), Bitboard.toSquare(4));
+			break;
+		case 4:
+			movePiece(piece_boards, mailbox, Bitboard.toSquare(0x72), Bitboard.toSquare(0x74));
+			break;
+		case 5:
+			movePiece(piece_boards, mailbox, Bitboard.toSquare(end + c_col * UP_MOVE), e_sq);
+			break;
+		case 6:
+		case 7:
+		case 8:
+		case 9:
+		case 16:
+		case 17:
+		case 18:
+		case 19:
+			addMaterial(c_col, Piece.valueOf(Piece.PAWN)
+					- Piece.valueOf(Bitboard.typeOf(mailbox[e_sq])));
+			removePiece(piece_boards, mailbox, e_sq);
+			placePiece(piece_boards, mailbox, Bitboard.pieceIndex(Piece.PAWN, c_col), e_sq);
+			break;
+		}
+		movePiece(piece_boards, mailbox, e_sq, s_sq);
+		if (undo_captured[ply] != Bitboard.EMPTY) {
+			placePiece(piece_boards, mailbox, undo_captured[ply], e_sq);
+			addMaterial((byte) -c_col, Piece.valueOf(Bitboard
+					.typeOf(undo_captured[ply])));
+		}
+		updateOccupancy();
+		attacks_changed |= changedSquares(move, c_col);
+		prior_move = undo_prior[ply];
+		en_passant_square = undo_eps[ply];
+		castling = undo_castling[ply];
+		ply_count = undo_fifty[ply];
+		zobrist = undo_hash[ply];
+		pawn_zobrist = undo_pawn_hash[ply];
+		half_moves--;
+		clearCache();
+	}
+
+	/**
+	 * Returns the material of one side, the sum of the values of all its
+	 * pieces but the king. It is kept up to date as moves are made, so this
+	 * takes constant time.
+	 * 
+	 * @param forWhite
+	 *            whether or not to return white's material or black's.
+	 * @return The material of the side.
+	 */
+	public int getMaterial(boolean forWhite) {
+		return forWhite ? white_material : black_material;
+	}
+
+	/**
+	 * Returns the number of pieces of a type and colour on the board.
+	 * 
+	 * @param type
+	 *            The type of the pieces.
+	 * @param colour
+	 *            The colour of the pieces.
+	 * @return The number of such pieces.
+	 */
+	public int getPieceCount(byte type, byte colour) {
+		return Long.bitCount(piece_boards[Bitboard.pieceIndex(type, colour)]);
+	}
+
+	/**
+	 * Returns the bitboard of the pieces of a type and colour.
+	 * 
+	 * @param type
+	 *            The type of the pieces.
+	 * @param colour
+	 *            The colour of the pieces.
+	 * @return The bitboard of such pieces.
+	 */
+	public long getPieceBoard(byte type, byte colour) {
+		return piece_boards[Bitboard.pieceIndex(type, colour)];
+	}
+
+	/**
+	 * Returns the squares attacked by the piece on a square. The attacks are
+	 * kept up to date as moves are made, so this takes constant time.
+	 * 
+	 * @param square
+	 *            The bitboard square of the piece.
+	 * @return The bitboard of the attacked squares, 0 if the square is empty.
+	 */
+	public long getAttacks(int square) {
+		if (attacks_changed != 0)
+			updateAttacks();
+		return attacks[square];
+	}
+
+	/**
+	 * Returns all the squares attacked by one side.
+	 * 
+	 * @param colour
+	 *            The colour of the side, Piece.WHITE or Piece.BLACK.
+	 * @return The bitboard of the attacked squares.
+	 */
+	public long getAttackedSquares(byte colour) {
+		if (attacks_changed != 0)
+			updateAttacks();
+		long attacked = 0;
+		for (long sqs = colour == Piece.WHITE ? white_occupancy
+				: black_occupancy; sqs != 0; sqs &= sqs - 1)
+			attacked |= attacks[Long.numberOfTrailingZeros(sqs)];
+		return attacked;
+	}
+
+	/**
+	 * Returns the game phase of this position from the material left on the
+	 * board, from MAX_PHASE with all the material of the initial position
+	 * down to 0 with the bare kings.
+	 * 
+	 * @return The game phase, between 0 and MAX_PHASE.
+	 */
+	public int getPhase() {
+		int phase = ((white_material + black_material) * MAX_PHASE + TOTAL_MATERIAL / 2)
+				/ TOTAL_MATERIAL;
+		return phase > MAX_PHASE ? MAX_PHASE : phase;
+	}
+
 	/**
 	 * Returns <i>this</i> position's current 50 move rule counter.
 	 * 
@@ -284,6 +662,15 @@ public final class Position {
 		return ply_count;
 	}
 
+	/**
+	 * Returns the packed move that led to <i>this</i> position.
+	 * 
+	 * @return The packed prior move, or Move.NO_MOVE if it is not known.
+	 */
+	public int getPriorMove() {
+		return prior_move;
+	}
+
 	/**
 	 * Returns the "en passant-able" square using 0x88 cooridinates in
 	 * <i>this</i> position.
@@ -321,70 +708,89 @@ public final class Position {
 	public boolean isInCheck(boolean storage) {
 		if (storage && is_in_check != -1)
 			return (is_in_check == 1);
-		Piece[] c_map = is_White_to_Move ? white_map : black_map;
-		byte o_col = is_White_to_Move ? Piece.BLACK : Piece.WHITE, c_col = (byte) (-1 * o_col), k_loc = c_map[0]
-				.getPosition(), type;
-		Piece obstruct;
-		int next_pos = 0;
-		boolean melee;
-		// radial attacks
-		for (int i = 0; i < 8; i++) {
-			next_pos = k_loc + RADIALS[i];
-			melee = true;
-			while ((next_pos & 0x88) == 0) {
-				obstruct = getSquareOccupier((byte) next_pos);
-				if (obstruct.getColour() == c_col)
-					break;
-				if ((type = obstruct.getType()) != Piece.NULL) {
-					if (type == Piece.PAWN) {
-						if (i < 4
-								&& c_col * ((next_pos >> 4) - (k_loc >> 4)) == 1
-								&& melee) {
-							if (storage)
-								is_in_check = 1;
-							return true;
-						}
-						break;
-					} else if (type == Piece.BISHOP) {
-						if (i < 4) {
-							if (storage)
-								is_in_check = 1;
-							return true;
-						}
-						break;
-					} else if (type == Piece.QUEEN) {
-						if (storage)
-							is_in_check = 1;
-						return true;
-					} else if (type == Piece.ROOK) {
-						if (i > 3) {
-							if (storage)
-								is_in_check = 1;
-							return true;
-						}
-					} else if (type == Piece.KING && melee) {
-						if (storage)
-							is_in_check = 1;
-						return true;
-					}
-					break;
-				}
-				next_pos += RADIALS[i];
-				melee = false;
-			}
+		boolean check = isSquareAttacked(getKingSquare(is_White_to_Move),
+				is_White_to_Move ? Piece.BLACK : Piece.WHITE);
+		if (storage)
+			is_in_check = check ? 1 : 0;
+		return check;
+	}
+
+	/**
+	 * Checks whether a legal move of the side to move gives check, without
+	 * making it. The squares each piece type would give check from and the
+	 * pieces that would discover a check are computed once per position, so
+	 * most moves are decided by a lookup. Only the moves of the discovered
+	 * check candidates, castling and en passant look at the lines to the
+	 * king again.
+	 * 
+	 * @param move
+	 *            The packed move, as generated in this position.
+	 * @return true if the move gives check, false otherwise.
+	 */
+	public boolean givesCheck(int move) {
+		if (!check_info_current)
+			computeCheckInfo();
+		byte start = Move.startOf(move), end = Move.endOf(move), mod = Move
+				.modifierOf(move);
+		int from = Bitboard.toSquare(start), to = Bitboard.toSquare(end);
+		int base = is_White_to_Move ? 0 : Bitboard.BLACK_OFFSET;
+		int k_sq = Long.numberOfTrailingZeros(piece_boards[Bitboard
+				.pieceIndex(Piece.KING, is_White_to_Move ? Piece.BLACK
+						: Piece.WHITE)]);
+		long occupancy = white_occupancy | black_occupancy;
+		long rooks = piece_boards[base + Piece.ROOK]
+				| piece_boards[base + Piece.QUEEN];
+		long bishops = piece_boards[base + Piece.BISHOP]
+				| piece_boards[base + Piece.QUEEN];
+		if (mod >= 1 && mod <= 4) {
+			// the rook moves from start to end, the king from its square
+			int king = Bitboard.toSquare(mod % 2 == 1 ? 4 : 0x74);
+			int king_to = Bitboard.toSquare((mod % 2 == 1 ? 4 : 0x74)
+					+ (mod <= 2 ? 2 : -2));
+			occupancy = (occupancy & ~(1L << from) & ~(1L << king))
+					| (1L << to) | (1L << king_to);
+			rooks = (rooks & ~(1L << from)) | (1L << to);
+			return slidersCheck(k_sq, occupancy, rooks, bishops);
 		}
-		// knight moves
-		for (byte diff : KNIGHT_MOVES) {
-			if (getSquareOccupier((byte) (k_loc + diff), !is_White_to_Move)
-					.getType() == Piece.KNIGHT) {
-				if (storage)
-					is_in_check = 1;
+		byte type = Bitboard.typeOf(mailbox[from]);
+		if (mod == 5) {
+			// the pawn lands behind the victim, which leaves the board too
+			int landing = Bitboard.toSquare(end
+					+ (is_White_to_Move ? UP_MOVE : DOWN_MOVE));
+			if ((check_squares[Piece.PAWN] & (1L << landing)) != 0)
 				return true;
-			}
+			occupancy = (occupancy & ~(1L << from) & ~(1L << to))
+					| (1L << landing);
+			return slidersCheck(k_sq, occupancy, rooks, bishops);
 		}
-		if (storage)
-			is_in_check = 0;
-		return false;
+		if ((mod >= 6 && mod <= 9) || (mod >= 16 && mod <= 19)) {
+			type = (byte) (mod <= 9 ? mod - 5 : mod - 15);
+			long after = (occupancy & ~(1L << from)) | (1L << to);
+			if ((attacksOf(base + type, to, after) & (1L << k_sq)) != 0)
+				return true;
+		} else if ((check_squares[type] & (1L << to)) != 0)
+			return true;
+		if ((discovered_candidates & (1L << from)) == 0)
+			return false;
+		occupancy = (occupancy & ~(1L << from)) | (1L << to);
+		return slidersCheck(k_sq, occupancy, rooks & ~(1L << from),
+				bishops & ~(1L << from));
+	}
+
+	/**
+	 * Checks whether a square is attacked by the pieces of one side. This
+	 * method does so in constant time, by looking up the attack tables from
+	 * the square and comparing them against the bitboards of the attackers.
+	 * 
+	 * @param square
+	 *            The 0x88 coordinate of the square, it must be on the board.
+	 * @param colour
+	 *            The colour of the attacking side, Piece.WHITE or Piece.BLACK.
+	 * @return true if the square is attacked, false otherwise.
+	 */
+	public boolean isSquareAttacked(byte square, byte colour) {
+		return isAttacked(Bitboard.toSquare(square), white_occupancy
+				| black_occupancy, -1L, colour);
 	}
 
 	/**
@@ -393,7 +799,8 @@ public final class Position {
 	 * @return an array containing all the white pieces.
 	 */
 	public Piece[] getWhitePieces() {
-		return Arrays.copyOf(white_map, white_map.length);
+		Piece[] map = getPieceMap(true);
+		return Arrays.copyOf(map, map.length);
 	}
 
 	/**
@@ -402,408 +809,241 @@ public final class Position {
 	 * @return an array containing all the black pieces.
 	 */
 	public Piece[] getBlackPieces() {
-		return Arrays.copyOf(black_map, black_map.length);
+		Piece[] map = getPieceMap(false);
+		return Arrays.copyOf(map, map.length);
+	}
+
+	/**
+	 * Fills an array with the pieces of one side, with the king first,
+	 * followed by the other pieces from the queen down to the pawns and then
+	 * null pieces. Nothing is created, so an evaluator can reuse the array.
+	 * 
+	 * @param forWhite
+	 *            whether or not to copy white's pieces or black's.
+	 * @param map
+	 *            The array to fill, of length 16.
+	 */
+	public void copyPieces(boolean forWhite, Piece[] map) {
+		byte colour = forWhite ? Piece.WHITE : Piece.BLACK;
+		int n = 0;
+		long board = piece_boards[Bitboard.pieceIndex(Piece.KING, colour)];
+		for (byte type = Piece.KING; type >= Piece.PAWN && n < 16; type--) {
+			for (; board != 0 && n < 16; board &= board - 1)
+				map[n++] = Piece.getPiece(Bitboard.toX88(Long
+						.numberOfTrailingZeros(board)), type, colour);
+			if (type > Piece.PAWN)
+				board = piece_boards[Bitboard.pieceIndex(type - 1, colour)];
+		}
+		while (n < 16)
+			map[n++] = Piece.getNullPiece();
 	}
 
 	/**
-	 * Generates all the moves possible in this Position object. This method
-	 * does so by generating all the moves according to the pieces and filters
-	 * out all moves that result in a check.
+	 * Generates all the moves possible in this Position object. The moves are
+	 * generated as packed moves by generateMoves() and then converted into
+	 * Move objects and ordered.
 	 * 
 	 * @return An array containing all the legal moves in this position.
 	 */
 	public Move[] generateAllMoves() {
 		if (all_moves != null)
 			return all_moves;
-		Piece[] current_map = is_White_to_Move ? white_map : black_map;
-		LinkedList<Move> pieceMoves = new LinkedList<Move>();
-		byte king_sq = current_map[0].getPosition();
-		if (isInCheck(true)) {
-			Piece[] tP = getThreateningPieces(king_sq, is_White_to_Move);
-			if (tP.length > 0) {
-				if (tP.length > 1) {
-					// move the king
-					for (Move m : generatePieceMoves(king_sq, RADIALS, true)) {
-						Move reverse = new Move(m.getEndSquare(),
-								m.getStartSquare());
-						current_map[0] = current_map[0].move(m);
-						if (!isInCheck(false))
-							pieceMoves.add(m);
-						current_map[0] = current_map[0].move(reverse);
-					}
-				} else {
-					// move the king
-					LinkedList<Move> all_m = generatePieceMoves(king_sq,
-							RADIALS, true);
-					for (Move m : all_m) {
-						Move reverse = new Move(m.getEndSquare(),
-								m.getStartSquare());
-						current_map[0] = current_map[0].move(m);
-						if (!isInCheck(false))
-							pieceMoves.add(m);
-						current_map[0] = current_map[0].move(reverse);
-					}
-					Piece p = tP[0];
-					// put piece in between or kill threatening piece
-					byte loc = p.getPosition();
-					byte type = p.getType();
-					byte next_pos = king_sq;
-					if (type != Piece.PAWN && type != Piece.KNIGHT) {
-						byte diff = getDifference(loc, king_sq);
-						do {
-							next_pos += diff;
-							LinkedList<Move> t_m = getThreateningMoves(
-									next_pos, !is_White_to_Move);
-							for (Move m : t_m) {
-								byte start = m.getStartSquare();
-								byte end = m.getEndSquare();
-								byte mod = m.getModifier();
-								if (getSquareOccupier(start).getType() == Piece.PAWN
-										&& ((end >> 4) == (is_White_to_Move ? 7
-												: 0))) {
-									pieceMoves.add(new Move(start, end,
-											(byte) (6 + mod)));
-									pieceMoves.add(new Move(start, end,
-											(byte) (7 + mod)));
-									pieceMoves.add(new Move(start, end,
-											(byte) (8 + mod)));
-									pieceMoves.add(new Move(start, end,
-											(byte) (9 + mod)));
-								} else
-									pieceMoves.add(m);
-							}
-						} while (next_pos != loc);
-					} else {
-						pieceMoves.addAll(getThreateningMoves(loc,
-								!is_White_to_Move));
-						if (type == Piece.PAWN
-								&& en_passant_square == (is_White_to_Move ? 0x10
-										: -0x10)
-										+ loc) {
-							byte diffs[] = { 0x01, -0x01 };
-							for (byte diff : diffs) {
-								if (getSquareOccupier((byte) (loc + diff),
-										is_White_to_Move).getType() == Piece.PAWN) {
-									pieceMoves
-											.add(new Move(
-													(byte) (loc + diff),
-													(byte) (en_passant_square + (is_White_to_Move ? -16
-															: 16)), (byte) 5));
-								}
-							}
-						}
-					}
-					// deletes moves that involve guardians
-					Piece[][] ga = getGuardianAssailantMap(king_sq);
-					for (int i = 0; i < 8; i++) {
-						if (ga[0][i].getType() != Piece.NULL) {
-							Piece p1 = ga[0][i];
-							for (int j = 0; j < pieceMoves.size(); j++) {
-								Move m = pieceMoves.get(j);
-								byte start_sq = m.getStartSquare();
-								if (start_sq == p1.getPosition())
-									pieceMoves.remove(j);
-							}
-						}
-					}
-				}
-			}
-		} else {
-			// if the king is currently not in check
-			Piece[][] ga_map = getGuardianAssailantMap(current_map[0]
-					.getPosition());
-			byte diff = 0;
-			for (Piece current_piece : current_map) {
-				Piece assailant = Piece.getNullPiece();
-				byte c_pos = current_piece.getPosition(), next_pos, c_col = is_White_to_Move ? Piece.WHITE
-						: Piece.BLACK;
-				for (int m = 0; m < 8; m++)
-					if (current_piece.getPosition() == ga_map[0][m]
-							.getPosition()) {
-						assailant = ga_map[1][m];
-						diff = RADIALS[m];
-					}
-				if (assailant.getType() == Piece.NULL) {
-					byte advance = is_White_to_Move ? UP_MOVE : DOWN_MOVE, promotion_row = (byte) (is_White_to_Move ? 7
-							: 0), start_row = (byte) (is_White_to_Move ? 1 : 6), c_type = current_piece
-							.getType();
-					Piece o_pos;
-					switch (c_type) {
-					case Piece.PAWN:
-						byte[] attack = is_White_to_Move ? WHITE_PAWN_ATTACK
-								: BLACK_PAWN_ATTACK;
-						next_pos = (byte) (c_pos + advance);
-						if (getSquareOccupier(next_pos).getColour() == Piece.NULL_COL
-								&& (next_pos & 0x88) == 0) {
-							if (next_pos >> 4 == promotion_row) {
-								pieceMoves.add(new Move(c_pos, next_pos,
-										(byte) 6));
-								pieceMoves.add(new Move(c_pos, next_pos,
-										(byte) 7));
-								pieceMoves.add(new Move(c_pos, next_pos,
-										(byte) 8));
-								pieceMoves.add(new Move(c_pos, next_pos,
-										(byte) 9));
-							} else
-								pieceMoves.add(new Move(c_pos, next_pos));
-							if (c_pos >> 4 == start_row) {
-								next_pos = (byte) (next_pos + advance);
-								if (getSquareOccupier(next_pos).getColour() == Piece.NULL_COL)
-									pieceMoves.add(new Move(c_pos, next_pos,
-											(byte) 20));
-							}
-						}
-						for (byte atk : attack) {
-							next_pos = (byte) (c_pos + atk);
-							if ((next_pos & 0x88) == 0) {
-								if (next_pos == en_passant_square) {
-									// check if it's tricky case
-									Move m = new Move(
-											c_pos,
-											(byte) (next_pos - UP_MOVE * c_col),
-											(byte) 5);
-									Position temp = this.makeMove(m);
-									temp.resetActivePlayer();
-									if (!temp.isInCheck(false))
-										pieceMoves.add(m);
-								} else {
-									o_pos = getSquareOccupier(next_pos,
-											!is_White_to_Move);
-									if (o_pos.getColour() != Piece.NULL_COL) {
-										if (next_pos >> 4 == promotion_row) {
-											pieceMoves.add(new Move(c_pos,
-													next_pos, (byte) 16));
-											pieceMoves.add(new Move(c_pos,
-													next_pos, (byte) 17));
-											pieceMoves.add(new Move(c_pos,
-													next_pos, (byte) 18));
-											pieceMoves.add(new Move(c_pos,
-													next_pos, (byte) 19));
-										} else
-											pieceMoves.add(new Move(c_pos,
-													next_pos, (byte) 10));
-									}
-								}
-							}
-						}
-						break;
-					case Piece.ROOK:
-						pieceMoves.addAll(generatePieceMoves(c_pos,
-								HORIZONTALS, false));
-						break;
-					case Piece.KNIGHT:
-						pieceMoves.addAll(generatePieceMoves(c_pos,
-								KNIGHT_MOVES, true));
-						break;
-					case Piece.BISHOP:
-						pieceMoves.addAll(generatePieceMoves(c_pos, DIAGONALS,
-								false));
-						break;
-					case Piece.QUEEN:
-						pieceMoves.addAll(generatePieceMoves(c_pos, RADIALS,
-								false));
-						break;
-					case Piece.KING:
-						for (Move m : generatePieceMoves(c_pos, RADIALS, true)) {
-							Move reverse = new Move(m.getEndSquare(),
-									m.getStartSquare());
-							current_map[0] = current_map[0].move(m);
-							if (!isInCheck(false))
-								pieceMoves.add(m);
-							current_map[0] = current_map[0].move(reverse);
-						}
-						;
-						boolean[] castle_rights = getCastlingRights();
-						for (int i = 0; i < 4; i++) {
-							boolean can_castle = castle_rights[i];
-							diff = i < 2 ? RIGHT_MOVE : LEFT_MOVE;
-							int range = 2;
-							next_pos = c_pos;
-							for (int j = 0; j < range; j++) {
-								if (can_castle) {
-									if ((is_White_to_Move && i % 2 == 0)
-											|| ((!is_White_to_Move) && i % 2 == 1)) {
-										next_pos = (byte) (next_pos + diff);
-										if ((getSquareOccupier(next_pos)
-												.isEqual(Piece.getNullPiece()))) {
-											current_map[0] = current_piece
-													.move((byte) (diff * (j + 1)));
-											if (isInCheck(false)) {
-												can_castle = false;
-											}
-											if (i >= 2) {
-												if (!(getSquareOccupier((byte) (next_pos - 1))
-														.isEqual(Piece
-																.getNullPiece()))) {
-													can_castle = false;
-												}
-											}
-										} else
-											can_castle = false;
-										current_map[0] = current_piece;
-									} else
-										can_castle = false;
-								} else
-									break;
-							}
-							if (can_castle)
-								pieceMoves.add(Move.CASTLE[i]);
-						}
-						break;
-					}
-				} else {
-					next_pos = assailant.getPosition();
-					byte g_row = (byte) (c_pos >> 4), g_col = (byte) (c_pos & 0x7), a_row = (byte) (next_pos >> 4), a_col = (byte) (next_pos & 0x7), type = current_piece
-							.getType();
-					if (type == Piece.QUEEN) {
-						for (byte a_pos = next_pos; a_pos != king_sq; a_pos -= diff) {
-							if (a_pos != c_pos) {
-								pieceMoves.add(new Move(c_pos, a_pos,
-										a_pos == next_pos ? (byte) 10
-												: (byte) 0));
-							}
-						}
-					} else if (type == Piece.ROOK
-							&& (a_row - g_row == 0 || a_col - g_col == 0)) {
-						for (byte a_pos = next_pos; a_pos != king_sq; a_pos -= diff) {
-							if (a_pos != c_pos) {
-								pieceMoves.add(new Move(c_pos, a_pos,
-										a_pos == next_pos ? (byte) 10
-												: (byte) 0));
-							}
-						}
-					} else if (type == Piece.BISHOP
-							&& (Math.abs(a_row - g_row) == Math.abs(a_col
-									- g_col))) {
-						for (byte a_pos = next_pos; a_pos != king_sq; a_pos -= diff) {
-							if (a_pos != c_pos) {
-								pieceMoves.add(new Move(c_pos, a_pos,
-										a_pos == next_pos ? (byte) 10
-												: (byte) 0));
-							}
-						}
-					} else if (type == Piece.PAWN) {
-						if ((a_row - g_row) * c_col > 0
-								&& Math.abs(a_col - g_col) == 1) {
-							pieceMoves
-									.add(new Move(c_pos, next_pos, (byte) 10));
-						} else if (a_col - g_col == 0) {
-							byte advance = is_White_to_Move ? UP_MOVE
-									: DOWN_MOVE, start_row = (byte) (is_White_to_Move ? 1
-									: 6);
-							next_pos = (byte) (c_pos + advance);
-							if (getSquareOccupier(next_pos).getColour() == Piece.NULL_COL
-									&& (next_pos & 0x88) == 0) {
-								pieceMoves.add(new Move(c_pos, next_pos));
-								if (c_pos >> 4 == start_row) {
-									next_pos = (byte) (next_pos + advance);
-									if (getSquareOccupier(next_pos).getColour() == Piece.NULL_COL)
-										pieceMoves.add(new Move(c_pos,
-												next_pos, (byte) 20));
-								}
-							}
-						}
-					}
-
-				}
-			}
-		}
-		all_moves = new Move[pieceMoves.size()];
-		all_moves = pieceMoves.toArray(all_moves);
-		if (all_moves.length >= 2) orderMoves(Pine.table.getKillers());
+		int[] moves = new int[MAX_MOVES];
+		int count = generateMoves(moves);
+		all_moves = new Move[count];
+		for (int i = 0; i < count; i++)
+			all_moves[i] = Move.toMove(moves[i]);
+		if (all_moves.length >= 2) orderMoves(null);
 		return all_moves;
 	}
 
+	/**
+	 * Generates all the legal moves in this position as packed moves, into a
+	 * move buffer supplied by the caller. No objects are created, so a search
+	 * can keep one buffer per ply and reuse it. This method does so by
+	 * generating the moves of every piece and only verifying that the king is
+	 * safe for king moves, en passant captures, moves of pinned pieces and
+	 * moves made while in check; all other moves are legal as they are.
+	 * 
+	 * @param moves
+	 *            The buffer to write the moves into, it must hold at least
+	 *            MAX_MOVES moves.
+	 * @return The number of moves written into the buffer.
+	 */
+	public int generateMoves(int[] moves) {
+		return generate(moves, GEN_ALL);
+	}
 
 	/**
-	 * Makes a move on the position. Since Position objects are immutable, one
-	 * must reassign the variable. e.g. <code>p = p.makeMove(m)</code>.
+	 * Generates the legal captures, en passant captures and promotions in this
+	 * position as packed moves, see generateMoves().
+	 * 
+	 * @param moves
+	 *            The buffer to write the moves into, it must hold at least
+	 *            MAX_MOVES moves.
+	 * @return The number of moves written into the buffer.
+	 */
+	public int generateCaptures(int[] moves) {
+		return generate(moves, GEN_CAPTURES);
+	}
+
+	/**
+	 * Generates the legal moves in this position that generateCaptures() does
+	 * not generate, as packed moves, see generateMoves().
+	 * 
+	 * @param moves
+	 *            The buffer to write the moves into, it must hold at least
+	 *            MAX_MOVES moves.
+	 * @return The number of moves written into the buffer.
+	 */
+	public int generateQuiets(int[] moves) {
+		return generate(moves, GEN_QUIETS);
+	}
+
+	/**
+	 * Checks whether a packed move, such as a move from the transposition
+	 * table or a killer move from another node, is legal in this position.
+	 * Only the moves of the piece on the starting square are generated to do
+	 * so.
+	 * 
+	 * @param move
+	 *            The packed move, its captured piece is ignored.
+	 * @return The move as it is generated in this position, or Move.NO_MOVE
+	 *         if it is not legal.
+	 */
+	public int validateMove(int move) {
+		byte start = Move.startOf(move), end = Move.endOf(move), mod = Move
+				.modifierOf(move);
+		if (move == Move.NO_MOVE || (start & 0x88) != 0)
+			return Move.NO_MOVE;
+		byte king_sq = getKingSquare(is_White_to_Move);
+		int sq = Bitboard.toSquare(mod >= 1 && mod <= 4 ? king_sq : start);
+		int index = mailbox[sq];
+		if (index == Bitboard.EMPTY
+				|| Bitboard.colourOf(index) != (is_White_to_Move ? Piece.WHITE
+						: Piece.BLACK))
+			return Move.NO_MOVE;
+		if (validate_buffer == null)
+			validate_buffer = new int[MAX_MOVES];
+		boolean check = isInCheck(true);
+		long pinned = check ? 0 : getPinnedPieces(king_sq);
+		int n = addMoves(validate_buffer, 0, sq, check, pinned, GEN_ALL);
+		for (int i = 0; i < n; i++) {
+			int m = validate_buffer[i];
+			if (Move.startOf(m) == start && Move.endOf(m) == end
+					&& Move.modifierOf(m) == mod)
+				return m;
+		}
+		return Move.NO_MOVE;
+	}
+
+	/**
+	 * Makes a move on the position. The position itself is left unchanged,
+	 * so one must reassign the variable. e.g. <code>p = p.makeMove(m)</code>.
+	 * The new position is always an immutable one, even if this is a search
+	 * board: moves are made on a search board in place with make().
 	 * 
 	 * @param m
 	 *            The move to make on the current Position.
-	 * @return A new position with the move made on it.
+	 * @return A new immutable position with the move made on it.
 	 */
 	public Position makeMove(Move m) {
-		byte start = m.getStartSquare(), end = m.getEndSquare(), mod = m
-				.getModifier();
-		int s_l = getIndiceOfPiece(start, is_White_to_Move), h_l = getIndiceOfPiece(
-				end, !is_White_to_Move);
-		Piece[] onMove_copy = Arrays.copyOf(is_White_to_Move ? white_map
-				: black_map, white_map.length);
-		Piece[] offMove_copy = Arrays.copyOf(is_White_to_Move ? black_map
-				: white_map, white_map.length);
+		Position next = new Position(this);
+		next.applyMove(m.toInt(this));
+		return next;
+	}
+
+	/**
+	 * Applies a move to this position in place. This is used to build the
+	 * positions returned by makeMove() and to make moves on a search board.
+	 * 
+	 * @param move
+	 *            The packed move to apply.
+	 */
+	private void applyMove(int move) {
+		byte start = Move.startOf(move), end = Move.endOf(move), mod = Move
+				.modifierOf(move);
+		int s_sq = Bitboard.toSquare(start), e_sq = Bitboard.toSquare(end);
+		byte type = Bitboard.typeOf(mailbox[s_sq]);
 		boolean inc_ply = true;
-		boolean[] castlingRights = Arrays.copyOf(getCastlingRights(), 4);
+		byte rights = castling;
 		byte new_eps = -1, c_col = is_White_to_Move ? Piece.WHITE : Piece.BLACK, o_col = (byte) (c_col * -1);
-		long new_hash = zobrist;
+		long new_hash = zobrist, new_pawn_hash = pawn_zobrist;
 
-		onMove_copy[s_l] = onMove_copy[s_l].move(m);
-		new_hash = Zobrist.xorinout(new_hash, end, start,
-				onMove_copy[s_l].getType(), c_col);
-		if (h_l != -1) {
+		if (mailbox[e_sq] != Bitboard.EMPTY) {
 			inc_ply = false;
-			new_hash = Zobrist.xorout(new_hash,
-					offMove_copy[h_l].getPosition(),
-					offMove_copy[h_l].getType(), o_col);
-			int last_ind = getLastPieceIndice(!is_White_to_Move);
-			offMove_copy[h_l] = offMove_copy[h_l].destroy();
-			Piece swap = offMove_copy[last_ind];
-			offMove_copy[last_ind] = offMove_copy[h_l];
-			offMove_copy[h_l] = swap;
+			byte captured = Bitboard.typeOf(mailbox[e_sq]);
+			new_hash = Zobrist.xorout(new_hash, end, captured, o_col);
+			addMaterial(o_col, -Piece.valueOf(captured));
+			if (captured == Piece.PAWN)
+				new_pawn_hash = Zobrist.xorout(new_pawn_hash, end, Piece.PAWN, o_col);
+			removePiece(piece_boards, mailbox, e_sq);
 		}
+		movePiece(piece_boards, mailbox, s_sq, e_sq);
+		new_hash = Zobrist.xorinout(new_hash, end, start, type, c_col);
+		if (type == Piece.PAWN)
+			new_pawn_hash = Zobrist.xorinout(new_pawn_hash, end, start, Piece.PAWN, c_col);
 		// deal with the "specialness" of the modifiers
 		switch (mod) {
 		case 1:
-			onMove_copy[0] = onMove_copy[0].move((byte) 2);
+			movePiece(piece_boards, mailbox, Bitboard.toSquare(4), Bitboard.toSquare(6));
 			new_hash = Zobrist.xorinout(new_hash, (byte) 6, (byte) 4,
 					Piece.KING, Piece.WHITE);
-			castlingRights[0] = false;
-			castlingRights[2] = false;
+			rights &= ~5;
 			break;
 		case 2:
-			onMove_copy[0] = onMove_copy[0].move((byte) 2);
+			movePiece(piece_boards, mailbox, Bitboard.toSquare(0x74), Bitboard.toSquare(0x76));
 			new_hash = Zobrist.xorinout(new_hash, (byte) 0x76, (byte) 0x74,
 					Piece.KING, Piece.BLACK);
-			castlingRights[1] = false;
-			castlingRights[3] = false;
+			rights &= ~10;
 			break;
 		case 3:
-			onMove_copy[0] = onMove_copy[0].move((byte) -2);
+			movePiece(piece_boards, mailbox, Bitboard.toSquare(4), Bitboard.toSquare(2));
 			new_hash = Zobrist.xorinout(new_hash, (byte) 2, (byte) 4,
 					Piece.KING, Piece.WHITE);
-			castlingRights[0] = false;
-			castlingRights[2] = false;
+			rights &= ~5;
 			break;
 		case 4:
-			onMove_copy[0] = onMove_copy[0].move((byte) -2);
+			movePiece(piece_boards, mailbox, Bitboard.toSquare(0x74), Bitboard.toSquare(0x72));
 			new_hash = Zobrist.xorinout(new_hash, (byte) 0x72, (byte) 0x74,
 					Piece.KING, Piece.BLACK);
-			castlingRights[1] = false;
-			castlingRights[3] = false;
+			rights &= ~10;
 			break;
 		case 5:
-			onMove_copy[s_l] = onMove_copy[s_l].move((byte) (c_col * UP_MOVE));
+			movePiece(piece_boards, mailbox, e_sq, Bitboard.toSquare(end + c_col * UP_MOVE));
 			new_hash = Zobrist.xorinout(new_hash,
 					(byte) (end + (c_col * UP_MOVE)), end, Piece.PAWN, c_col);
+			new_pawn_hash = Zobrist.xorinout(new_pawn_hash,
+					(byte) (end + (c_col * UP_MOVE)), end, Piece.PAWN, c_col);
 			break;
 		case 6:
 		case 7:
 		case 8:
 		case 9:
-			onMove_copy[s_l] = new Piece(end, (byte) (mod - 5), c_col);
+			removePiece(piece_boards, mailbox, e_sq);
+			placePiece(piece_boards, mailbox, Bitboard.pieceIndex(mod - 5, c_col), e_sq);
 			new_hash = Zobrist.xorpromotion(new_hash, end, (byte) (mod - 5),
 					c_col);
+			new_pawn_hash = Zobrist.xorout(new_pawn_hash, end, Piece.PAWN, c_col);
+			addMaterial(c_col, Piece.valueOf((byte) (mod - 5))
+					- Piece.valueOf(Piece.PAWN));
 			break;
 		case 16:
 		case 17:
 		case 18:
 		case 19:
-			onMove_copy[s_l] = new Piece(end, (byte) (mod - 15), c_col);
+			removePiece(piece_boards, mailbox, e_sq);
+			placePiece(piece_boards, mailbox, Bitboard.pieceIndex(mod - 15, c_col), e_sq);
 			new_hash = Zobrist.xorpromotion(new_hash, end, (byte) (mod - 15),
 					c_col);
+			new_pawn_hash = Zobrist.xorout(new_pawn_hash, end, Piece.PAWN, c_col);
+			addMaterial(c_col, Piece.valueOf((byte) (mod - 15))
+					- Piece.valueOf(Piece.PAWN));
 			break;
 		}
-		if (onMove_copy[s_l].getType() == Piece.PAWN) {
+		updateOccupancy();
+		attacks_changed |= changedSquares(move, c_col);
+		if (type == Piece.PAWN) {
 			// only consider epsq when en_passant is possible
 			if (mod == 20
 					&& (getSquareOccupier((byte) (end + LEFT_MOVE),
@@ -814,28 +1054,30 @@ public final class Position {
 			inc_ply = false;
 		}
 		// deal with castling rights
-		if (start == 4) {
-			castlingRights[0] = false;
-			castlingRights[2] = false;
-		} else if (start == 0x74) {
-			castlingRights[1] = false;
-			castlingRights[3] = false;
-		} else if (start == 0 || end == 0)
-			castlingRights[2] = false;
+		if (start == 4)
+			rights &= ~5;
+		else if (start == 0x74)
+			rights &= ~10;
+		else if (start == 0 || end == 0)
+			rights &= ~4;
 		else if (start == 7 || end == 7)
-			castlingRights[0] = false;
+			rights &= ~1;
 		else if (start == 0x77 || end == 0x77)
-			castlingRights[1] = false;
+			rights &= ~2;
 		else if (start == 0x70 || end == 0x70)
-			castlingRights[3] = false;
+			rights &= ~8;
 
-		new_hash = Zobrist.xorcastling(new_hash, getCastlingRights(),
-				castlingRights);
+		new_hash = Zobrist.xorcastling(new_hash, castling, rights);
 		new_hash = Zobrist.xorepsq(new_hash, en_passant_square, new_eps);
-		return new Position((byte) (inc_ply ? ply_count + 1 : 0), new_eps,
-				castlingRights, !is_White_to_Move,
-				(is_White_to_Move ? onMove_copy : offMove_copy),
-				(is_White_to_Move ? offMove_copy : onMove_copy), new_hash, m, (short)(half_moves+1));
+		ply_count = (byte) (inc_ply ? ply_count + 1 : 0);
+		en_passant_square = new_eps;
+		castling = rights;
+		is_White_to_Move = !is_White_to_Move;
+		zobrist = new_hash;
+		pawn_zobrist = new_pawn_hash;
+		prior_move = move;
+		half_moves++;
+		clearCache();
 	}
 
 	/**
@@ -849,7 +1091,22 @@ public final class Position {
 	public int getResult() {
 		if (all_moves == null)
 			generateAllMoves();
-		if (all_moves.length == 0) {
+		return getResult(all_moves.length > 0);
+	}
+
+	/**
+	 * Returns the ending game decision for the positions, given whether or not
+	 * the side to move has a legal move. This lets a search that generates its
+	 * own moves avoid generating them again.
+	 * 
+	 * @param has_moves
+	 *            Whether or not the side to move has a legal move.
+	 * @return the result of the game, masked by one of the constants. DRAW for
+	 *         a draw. WHITE_WINS if white wins. BLACK_WINS if black wins.
+	 *         NO_RESULT otherwise.
+	 */
+	public int getResult(boolean has_moves) {
+		if (!has_moves) {
 			if (!this.isInCheck(true))
 				return DRAW;
 			else
@@ -857,63 +1114,44 @@ public final class Position {
 		}
 		if (ply_count == 100)
 			return DRAW;
-		int whitePiecesLeft = getLastPieceIndice(true) + 1;
-		int blackPiecesLeft = getLastPieceIndice(false) + 1;
+		int whitePiecesLeft = Long.bitCount(white_occupancy);
+		int blackPiecesLeft = Long.bitCount(black_occupancy);
 		if (whitePiecesLeft == 1) {
-			if (blackPiecesLeft == 1)
+			// a lone king against a king and at most two knights
+			if (blackPiecesLeft <= 3
+					&& getPieceCount(Piece.KNIGHT, Piece.BLACK) == blackPiecesLeft - 1)
 				return DRAW;
-			else if (blackPiecesLeft == 2)
-				if (black_map[1].getType() == Piece.KNIGHT)
-					return DRAW;
-				else if (blackPiecesLeft == 3)
-					if (black_map[1].getType() == Piece.KNIGHT
-							&& black_map[2].getType() == Piece.KNIGHT)
-						return DRAW;
 		} else if (blackPiecesLeft == 1) {
-			if (whitePiecesLeft == 2)
-				if (white_map[1].getType() == Piece.KNIGHT)
-					return DRAW;
-			if (whitePiecesLeft == 3)
-				if (white_map[1].getType() == Piece.KNIGHT
-						&& white_map[2].getType() == Piece.KNIGHT)
-					return DRAW;
+			if (whitePiecesLeft <= 3
+					&& getPieceCount(Piece.KNIGHT, Piece.WHITE) == whitePiecesLeft - 1)
+				return DRAW;
 		} else if (whitePiecesLeft == 2 && blackPiecesLeft == 2) {
-			if (white_map[1].getType() == Piece.BISHOP
-					&& black_map[1].getType() == Piece.BISHOP) {
-				byte w_pos = white_map[1].getPosition(), b_pos = black_map[1]
-						.getPosition();
-				if ((((w_pos >> 4) + (w_pos & 7)) & 1)
-						+ (((b_pos >> 4) + (w_pos & 7)) & 1) == 1)
-					return DRAW;
-			}
+			// a king and a bishop each, the bishops on squares of the same
+			// colour, so that neither side can ever mate
+			long w_bishop = getPieceBoard(Piece.BISHOP, Piece.WHITE), b_bishop = getPieceBoard(
+					Piece.BISHOP, Piece.BLACK);
+			if (w_bishop != 0 && b_bishop != 0
+					&& ((w_bishop & DARK_SQUARES) == 0) == ((b_bishop & DARK_SQUARES) == 0))
+				return DRAW;
 		}
 		return NO_RESULT;
 	}
 
 	/**
 	 * Returns the occupier of a specific square, or the null piece if the
-	 * square is empty. This method does so by running through both arrays of
-	 * maps.
+	 * square is empty. This method does so by looking up the mailbox.
 	 * 
 	 * @return the occupier of a specific square, the null piece if the square
 	 *         is empty.
 	 */
 	public Piece getSquareOccupier(byte square) {
-		for (int i = 0; i < 16; i++) {
-			byte pos = white_map[i].getPosition();
-			if (pos == square)
-				return white_map[i];
-			else if (pos < 0)
-				break;
-		}
-		for (int i = 0; i < 16; i++) {
-			byte pos = black_map[i].getPosition();
-			if (pos == square)
-				return black_map[i];
-			else if (pos < 0)
-				break;
-		}
-		return Piece.getNullPiece();
+		if ((square & 0x88) != 0)
+			return Piece.getNullPiece();
+		int index = mailbox[Bitboard.toSquare(square)];
+		if (index == Bitboard.EMPTY)
+			return Piece.getNullPiece();
+		return Piece.getPiece(square, Bitboard.typeOf(index),
+				Bitboard.colourOf(index));
 	}
 
 	/**
@@ -936,254 +1174,928 @@ public final class Position {
 
 	/**
 	 * Returns the occupier of a specific square, or the null piece if the
-	 * square is empty. This method does so by running a specific map.
+	 * square is empty or occupied by the other side. This method does so by
+	 * looking up the mailbox.
 	 * 
 	 * @param square
 	 *            The square to search for.
 	 * @param toSearch
-	 *            The map to search in, true if white, false if black.
+	 *            The side to search for, true if white, false if black.
 	 * @return the occupier of the specific square, the null piece if the square
 	 *         is empty.
 	 */
 	public Piece getSquareOccupier(byte square, boolean toSearch) {
-		Piece[] map = toSearch ? white_map : black_map;
-		for (Piece p : map) {
-			byte pos = p.getPosition();
-			if (pos == square)
-				return p;
-			else if (pos < 0)
+		Piece p = getSquareOccupier(square);
+		if (p.getColour() != (toSearch ? Piece.WHITE : Piece.BLACK))
+			return Piece.getNullPiece();
+		return p;
+	}
+
+	/**
+	 * Evaluates the exchange a move starts on its destination square (static
+	 * exchange evaluation). Both sides recapture with their least valuable
+	 * attacker, and may stop whenever going on would lose material. The
+	 * attackers are looked up in the attack tables, and the sliders behind
+	 * a piece that has captured join in (x-rays). The king only captures if
+	 * the other side has no attacker left. Pins are not considered.
+	 * 
+	 * @param move
+	 *            A legal packed move in this position.
+	 * @return The material won by the side to move, negative if it loses
+	 *         material, 0 for castling.
+	 */
+	public int see(int move) {
+		byte mod = Move.modifierOf(move);
+		if (mod >= 1 && mod <= 4)
+			return 0;
+		if (see_gains == null)
+			see_gains = new int[33];
+		int[] gains = see_gains;
+		int from = Bitboard.toSquare(Move.startOf(move)), to = seeTarget(move);
+		long occupancy = (white_occupancy | black_occupancy) & ~(1L << from);
+		if (mod == 5)
+			occupancy &= ~Bitboard.bit(Move.endOf(move));
+		gains[0] = seeCaptured(move) + seePromotion(mod);
+		int on_square = seeMover(move, mod);
+		long attackers = attackersTo(to, occupancy) & occupancy;
+		boolean white = !is_White_to_Move;
+		int d = 0;
+		while (true) {
+			long side = attackers
+					& (white ? white_occupancy : black_occupancy);
+			if (side == 0)
+				break;
+			long bit = leastValuable(side);
+			byte type = Bitboard.typeOf(mailbox[Long.numberOfTrailingZeros(bit)]);
+			// the king may only capture if the other side has no attacker
+			// left, as in seeGreaterOrEqual()
+			if (type == Piece.KING && (attackers & ~side) != 0)
 				break;
+			d++;
+			gains[d] = on_square - gains[d - 1];
+			if (d == gains.length - 1)
+				break;
+			on_square = seeValue(type);
+			occupancy ^= bit;
+			attackers = (attackers | sliderAttackersTo(to, occupancy))
+					& occupancy;
+			white = !white;
 		}
-		return Piece.getNullPiece();
+		for (; d > 0; d--)
+			gains[d - 1] = -Math.max(-gains[d - 1], gains[d]);
+		return gains[0];
+	}
+
+	/**
+	 * Evaluates a move, see see(int).
+	 * 
+	 * @param m
+	 *            A legal move in this position.
+	 * @return The material won by the side to move.
+	 */
+	public int see(Move m) {
+		return see(Move.pack(m.getStartSquare(), m.getEndSquare(),
+				m.getModifier(), Piece.NULL));
+	}
+
+	/**
+	 * Checks whether the static exchange of a move wins at least a given
+	 * amount of material, that is whether see(move) >= threshold. It plays
+	 * the exchange out like see(), but stops as soon as the answer is known,
+	 * which is most often after one or two captures.
+	 * 
+	 * @param move
+	 *            A legal packed move in this position.
+	 * @param threshold
+	 *            The material to win, 0 to check that the move does not lose
+	 *            material.
+	 * @return true if the exchange wins at least threshold.
+	 */
+	public boolean seeGreaterOrEqual(int move, int threshold) {
+		byte mod = Move.modifierOf(move);
+		if (mod >= 1 && mod <= 4)
+			return 0 >= threshold;
+		int swap = seeCaptured(move) + seePromotion(mod) - threshold;
+		if (swap < 0)
+			return false;
+		swap = seeMover(move, mod) - swap;
+		if (swap <= 0)
+			return true;
+		int from = Bitboard.toSquare(Move.startOf(move)), to = seeTarget(move);
+		long occupancy = (white_occupancy | black_occupancy) & ~(1L << from);
+		if (mod == 5)
+			occupancy &= ~Bitboard.bit(Move.endOf(move));
+		long attackers = attackersTo(to, occupancy) & occupancy;
+		boolean white = is_White_to_Move, result = true;
+		while (true) {
+			white = !white;
+			long side = attackers
+					& (white ? white_occupancy : black_occupancy);
+			if (side == 0)
+				break;
+			result = !result;
+			long bit = leastValuable(side);
+			byte type = Bitboard.typeOf(mailbox[Long.numberOfTrailingZeros(bit)]);
+			if (type == Piece.KING)
+				// the king may only capture if the other side has no
+				// attacker left
+				return ((attackers & ~side) != 0) ? !result : result;
+			if ((swap = seeValue(type) - swap) < (result ? 1 : 0))
+				break;
+			occupancy ^= bit;
+			attackers = (attackers | sliderAttackersTo(to, occupancy))
+					& occupancy;
+		}
+		return result;
+	}
+
+	/**
+	 * Checks a move's static exchange, see seeGreaterOrEqual(int, int).
+	 * 
+	 * @param m
+	 *            A legal move in this position.
+	 * @param threshold
+	 *            The material to win.
+	 * @return true if the exchange wins at least threshold.
+	 */
+	public boolean seeGreaterOrEqual(Move m, int threshold) {
+		return seeGreaterOrEqual(Move.pack(m.getStartSquare(),
+				m.getEndSquare(), m.getModifier(), Piece.NULL), threshold);
 	}
 
 	// ----------------------Helper Methods----------------------
 	/**
-	 * Generates an vector of moves for a mask of differences for a piece. This
-	 * method does so with a while loop for each difference if the motion is
-	 * continuous, stopping on an opponent's piece.
+	 * Generates the legal moves of the side to move, as per generateMoves().
 	 * 
+	 * @param moves
+	 *            The buffer to write the moves into.
+	 * @param gen
+	 *            The generator flags of the moves to generate.
+	 * @return The number of moves written into the buffer.
+	 */
+	private int generate(int[] moves, int gen) {
+		int n = 0;
+		boolean check = isInCheck(true);
+		long pinned = check ? 0 : getPinnedPieces(getKingSquare(is_White_to_Move));
+		long own = is_White_to_Move ? white_occupancy : black_occupancy;
+		for (; own != 0; own &= own - 1)
+			n = addMoves(moves, n, Long.numberOfTrailingZeros(own), check,
+					pinned, gen);
+		return n;
+	}
+
+	/**
+	 * Adds the legal moves of a piece of the side to move to a move buffer.
+	 * 
+	 * @param moves
+	 *            The move buffer.
+	 * @param n
+	 *            The number of moves in the buffer.
+	 * @param sq
+	 *            The bitboard square of the piece.
+	 * @param check
+	 *            Whether or not the side to move is in check.
+	 * @param pinned
+	 *            The bitboard of the pinned pieces of the side to move.
+	 * @param gen
+	 *            The generator flags of the moves to add.
+	 * @return The number of moves in the buffer after adding.
+	 */
+	private int addMoves(int[] moves, int n, int sq, boolean check,
+			long pinned, int gen) {
+		byte c_pos = Bitboard.toX88(sq);
+		boolean verify = check || (pinned & (1L << sq)) != 0;
+		long occupancy = white_occupancy | black_occupancy;
+		switch (Bitboard.typeOf(mailbox[sq])) {
+		case Piece.PAWN:
+			return addPawnMoves(moves, n, c_pos, verify, gen);
+		case Piece.ROOK:
+			return addPieceMoves(moves, n, c_pos,
+					Attacks.rookAttacks(sq, occupancy), verify, gen);
+		case Piece.KNIGHT:
+			return addPieceMoves(moves, n, c_pos, Attacks.knightAttacks(sq),
+					verify, gen);
+		case Piece.BISHOP:
+			return addPieceMoves(moves, n, c_pos,
+					Attacks.bishopAttacks(sq, occupancy), verify, gen);
+		case Piece.QUEEN:
+			return addPieceMoves(moves, n, c_pos,
+					Attacks.queenAttacks(sq, occupancy), verify, gen);
+		case Piece.KING:
+			n = addPieceMoves(moves, n, c_pos, Attacks.kingAttacks(sq), true,
+					gen);
+			if (!check && (gen & GEN_QUIETS) != 0)
+				n = addCastlingMoves(moves, n, c_pos);
+			return n;
+		}
+		return n;
+	}
+
+	/**
+	 * Adds a move of the side to move to a move buffer, unless it has to be
+	 * verified and leaves the king attacked.
+	 * 
+	 * @param moves
+	 *            The move buffer.
+	 * @param n
+	 *            The number of moves in the buffer.
 	 * @param c_pos
-	 *            The current location.
-	 * @param differences
-	 *            The difference for each direction from c_pos.
-	 * @param cont
-	 *            Whether the piece moves in continuous motion, false if it
-	 *            does, true otherwise.
-	 * @return A vector containing all the possible straight moves.
-	 */
-	private LinkedList<Move> generatePieceMoves(byte c_pos, byte[] differences,
-			boolean cont) {
-		LinkedList<Move> AllMoves = new LinkedList<Move>();
-		byte c_col = is_White_to_Move ? Piece.WHITE : Piece.BLACK, o_col = (byte) (-1 * c_col);
-		byte col;
-		for (int i = 0; i < differences.length; i++) {
-			byte next_pos = (byte) (c_pos + differences[i]);
-			while ((next_pos & 0x88) == 0) {
-				Piece o_pos = getSquareOccupier(next_pos);
-				col = o_pos.getColour();
-				if (col != c_col) {
-					if (col == o_col) {
-						AllMoves.add(new Move(c_pos, next_pos, (byte) 10));
-						break;
-					} else
-						AllMoves.add(new Move(c_pos, next_pos));
+	 *            The starting square.
+	 * @param next_pos
+	 *            The ending square, as per the Move class.
+	 * @param mod
+	 *            The modifier of the move.
+	 * @param verify
+	 *            Whether or not the move has to be checked for leaving the king
+	 *            attacked.
+	 * @return The number of moves in the buffer after adding.
+	 */
+	private int addMove(int[] moves, int n, int c_pos, int next_pos, int mod,
+			boolean verify) {
+		int index = mailbox[Bitboard.toSquare(next_pos)];
+		if (verify) {
+			boolean attacked;
+			if (Bitboard.typeOf(mailbox[Bitboard.toSquare(c_pos)]) == Piece.KING)
+				attacked = isKingAttacked(next_pos, c_pos, -1, -1);
+			else if (mod == 5)
+				attacked = isKingAttacked(getKingSquare(is_White_to_Move),
+						c_pos, next_pos + (is_White_to_Move ? UP_MOVE
+								: DOWN_MOVE), next_pos);
+			else
+				attacked = isKingAttacked(getKingSquare(is_White_to_Move),
+						c_pos, next_pos, -1);
+			if (attacked)
+				return n;
+		}
+		byte captured = mod == 5 ? Piece.PAWN
+				: index == Bitboard.EMPTY ? Piece.NULL : Bitboard.typeOf(index);
+		moves[n] = Move.pack(c_pos, next_pos, mod, captured);
+		return n + 1;
+	}
+
+	/**
+	 * Adds the moves of a pawn of the side to move to a move buffer.
+	 * 
+	 * @param moves
+	 *            The move buffer.
+	 * @param n
+	 *            The number of moves in the buffer.
+	 * @param c_pos
+	 *            The location of the pawn.
+	 * @param verify
+	 *            Whether or not the moves have to be checked for leaving the
+	 *            king attacked.
+	 * @param gen
+	 *            The generator flags of the moves to add.
+	 * @return The number of moves in the buffer after adding.
+	 */
+	private int addPawnMoves(int[] moves, int n, int c_pos, boolean verify,
+			int gen) {
+		int advance = is_White_to_Move ? UP_MOVE : DOWN_MOVE, promotion_row = is_White_to_Move ? 7
+				: 0, start_row = is_White_to_Move ? 1 : 6;
+		byte[] attack = is_White_to_Move ? WHITE_PAWN_ATTACK
+				: BLACK_PAWN_ATTACK;
+		long enemy = is_White_to_Move ? black_occupancy : white_occupancy;
+		boolean captures = (gen & GEN_CAPTURES) != 0, quiets = (gen & GEN_QUIETS) != 0;
+		int next_pos = c_pos + advance;
+		if (mailbox[Bitboard.toSquare(next_pos)] == Bitboard.EMPTY) {
+			if (next_pos >> 4 == promotion_row) {
+				if (captures)
+					for (int mod = 6; mod <= 9; mod++)
+						n = addMove(moves, n, c_pos, next_pos, mod, verify);
+			} else if (quiets)
+				n = addMove(moves, n, c_pos, next_pos, 0, verify);
+			if (quiets && c_pos >> 4 == start_row) {
+				next_pos += advance;
+				if (mailbox[Bitboard.toSquare(next_pos)] == Bitboard.EMPTY)
+					n = addMove(moves, n, c_pos, next_pos, 20, verify);
+			}
+		}
+		for (byte atk : attack) {
+			next_pos = c_pos + atk;
+			if (!captures || (next_pos & 0x88) != 0)
+				continue;
+			if (next_pos == en_passant_square)
+				n = addMove(moves, n, c_pos, next_pos - advance, 5, true);
+			else if ((enemy & Bitboard.bit(next_pos)) != 0) {
+				if (next_pos >> 4 == promotion_row) {
+					for (int mod = 16; mod <= 19; mod++)
+						n = addMove(moves, n, c_pos, next_pos, mod, verify);
 				} else
-					break;
-				if (cont)
-					break;
-				next_pos += differences[i];
+					n = addMove(moves, n, c_pos, next_pos, 10, verify);
 			}
 		}
-		return AllMoves;
+		return n;
 	}
 
 	/**
-	 * Returns all "guardians" and "assailants" on the board. A guardian is a
-	 * piece shielding the king from attack. An assailant is an attacking piece.
+	 * Adds the moves of a piece of the side to move to a move buffer, given
+	 * the squares that the piece attacks.
+	 * 
+	 * @param moves
+	 *            The move buffer.
+	 * @param n
+	 *            The number of moves in the buffer.
+	 * @param c_pos
+	 *            The current location.
+	 * @param targets
+	 *            The bitboard of the squares attacked by the piece.
+	 * @param verify
+	 *            Whether or not the moves have to be checked for leaving the
+	 *            king attacked.
+	 * @param gen
+	 *            The generator flags of the moves to add.
+	 * @return The number of moves in the buffer after adding.
+	 */
+	private int addPieceMoves(int[] moves, int n, int c_pos, long targets,
+			boolean verify, int gen) {
+		long enemy = is_White_to_Move ? black_occupancy : white_occupancy;
+		if ((gen & GEN_CAPTURES) != 0)
+			for (long t = targets & enemy; t != 0; t &= t - 1)
+				n = addMove(moves, n, c_pos, Bitboard.toX88(Long
+						.numberOfTrailingZeros(t)), 10, verify);
+		if ((gen & GEN_QUIETS) != 0)
+			for (long t = targets & ~(white_occupancy | black_occupancy); t != 0; t &= t - 1)
+				n = addMove(moves, n, c_pos, Bitboard.toX88(Long
+						.numberOfTrailingZeros(t)), 0, verify);
+		return n;
+	}
+
+	/**
+	 * Adds the castling moves of the side to move to a move buffer. The king
+	 * must not be in check, which the caller makes sure of.
+	 * 
+	 * @param moves
+	 *            The move buffer.
+	 * @param n
+	 *            The number of moves in the buffer.
+	 * @param c_pos
+	 *            The location of the king.
+	 * @return The number of moves in the buffer after adding.
+	 */
+	private int addCastlingMoves(int[] moves, int n, int c_pos) {
+		for (int i = is_White_to_Move ? 0 : 1; i < 4; i += 2) {
+			if ((castling & (1 << i)) == 0)
+				continue;
+			int diff = i < 2 ? RIGHT_MOVE : LEFT_MOVE;
+			boolean can_castle = true;
+			for (int j = 1; j <= 2 && can_castle; j++) {
+				int next_pos = c_pos + j * diff;
+				if (mailbox[Bitboard.toSquare(next_pos)] != Bitboard.EMPTY
+						|| isKingAttacked(next_pos, c_pos, -1, -1))
+					can_castle = false;
+				else if (i >= 2
+						&& mailbox[Bitboard.toSquare(next_pos - 1)] != Bitboard.EMPTY)
+					can_castle = false;
+			}
+			if (can_castle) {
+				Move m = Move.CASTLE[i];
+				moves[n++] = Move.pack(m.getStartSquare(), m.getEndSquare(),
+						m.getModifier(), Piece.NULL);
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the pieces of the side to move that shield the king from an
+	 * attack along a line, and thus might not be free to move.
 	 * 
 	 * @param k_loc
 	 *            The current location of the king.
-	 * @return All the guardian and assailant pieces.
-	 */
-	private Piece[][] getGuardianAssailantMap(byte k_loc) {
-		Piece[][] guard_assail = new Piece[2][8];
-		byte o_col = is_White_to_Move ? Piece.BLACK : Piece.WHITE, c_col = (byte) (-1 * o_col), next_pos, colour, type = -1;
-		boolean guardian_reached = false, reset_required = true;
-		for (int i = 0; i < RADIALS.length; i++) {
-			next_pos = k_loc;
-			guardian_reached = false;
-			reset_required = true;
-			Piece guardian = Piece.getNullPiece(), assailant = Piece
-					.getNullPiece();
-			do {
-				next_pos += RADIALS[i];
-				Piece o_pos = getSquareOccupier(next_pos);
-				colour = o_pos.getColour();
-				if (colour == c_col && !guardian_reached) {
-					guardian = o_pos;
-					guardian_reached = true;
-				} else if (colour == o_col && guardian_reached) {
-					if ((type = o_pos.getType()) == Piece.KNIGHT
-							|| type == Piece.PAWN || type == Piece.KING)
-						break;
-					assailant = o_pos;
-					reset_required = false;
-					break;
-				} else if (colour != Piece.NULL_COL)
-					break;
-			} while ((next_pos & 0x88) == 0);
-			if (reset_required) {
-				guard_assail[0][i] = Piece.getNullPiece();
-				guard_assail[1][i] = Piece.getNullPiece();
-			} else {
-				if ((type == Piece.ROOK && i < 4)
-						|| (type == Piece.BISHOP && i > 3)) {
-					guard_assail[0][i] = Piece.getNullPiece();
-					guard_assail[1][i] = Piece.getNullPiece();
-				} else {
-					guard_assail[0][i] = guardian;
-					guard_assail[1][i] = assailant;
-				}
-			}
+	 * @return The bitboard of the pinned pieces.
+	 */
+	private long getPinnedPieces(int k_loc) {
+		int k_sq = Bitboard.toSquare(k_loc), base = is_White_to_Move ? Bitboard.BLACK_OFFSET
+				: 0;
+		long own = is_White_to_Move ? white_occupancy : black_occupancy, enemy = is_White_to_Move ? black_occupancy
+				: white_occupancy;
+		long queens = piece_boards[base + Piece.QUEEN], pinned = 0;
+		long snipers = (Attacks.rookAttacks(k_sq, enemy) & (piece_boards[base
+				+ Piece.ROOK] | queens))
+				| (Attacks.bishopAttacks(k_sq, enemy) & (piece_boards[base
+						+ Piece.BISHOP] | queens));
+		for (; snipers != 0; snipers &= snipers - 1) {
+			long between = Attacks.between(k_sq, Long
+					.numberOfTrailingZeros(snipers))
+					& (own | enemy);
+			if ((between & (between - 1)) == 0 && (between & own) != 0)
+				pinned |= between;
 		}
-		return guard_assail;
+		return pinned;
 	}
 
 	/**
-	 * Returns the last index of the last piece that is not null.
+	 * Returns the view of the pieces of one side, building it from the
+	 * bitboards if it has not been built yet. The king is always first and
+	 * the empty slots are filled with the null piece.
 	 * 
 	 * @param forWhite
-	 *            whether or not to search in white's pieces or black's.
+	 *            whether or not to build white's pieces or black's.
+	 * @return the piece map of the specified side.
 	 */
-	private int getLastPieceIndice(boolean forWhite) {
+	private Piece[] getPieceMap(boolean forWhite) {
+		Piece[] map = forWhite ? white_map : black_map;
+		if (map != null)
+			return map;
+		map = new Piece[16];
+		copyPieces(forWhite, map);
 		if (forWhite)
-			for (int i = 15; i >= 0; i--) {
-				if (white_map[i].getType() != Piece.NULL)
-					return i;
-			}
+			white_map = map;
 		else
-			for (int i = 15; i >= 0; i--) {
-				if (black_map[i].getType() != Piece.NULL)
-					return i;
-			}
+			black_map = map;
+		return map;
+	}
+
+	/**
+	 * Returns the location of the king of one side.
+	 * 
+	 * @param forWhite
+	 *            whether or not to look for white's king or black's.
+	 * @return the 0x88 location of the king.
+	 */
+	private byte getKingSquare(boolean forWhite) {
+		long king = piece_boards[Bitboard.pieceIndex(Piece.KING,
+				forWhite ? Piece.WHITE : Piece.BLACK)];
+		return Bitboard.toX88(Long.numberOfTrailingZeros(king));
+	}
+
+	/**
+	 * Checks whether the king of the side to move is attacked when standing on
+	 * a specific square, as if a piece of the side to move had left one square
+	 * for another, without making the move. This is done in constant time with
+	 * the attack tables.
+	 * 
+	 * @param k_loc
+	 *            The square the king stands on.
+	 * @param vacated
+	 *            The square that is treated as empty.
+	 * @param blocked
+	 *            The square that is treated as occupied by the side to move,
+	 *            so any opponent's piece on it is captured; -1 if none.
+	 * @param removed
+	 *            Another square that is treated as empty, the square of a pawn
+	 *            captured en passant; -1 if none.
+	 * @return true if the king is attacked, false otherwise.
+	 */
+	private boolean isKingAttacked(int k_loc, int vacated, int blocked,
+			int removed) {
+		long occupancy = white_occupancy | black_occupancy, live = -1L;
+		if (vacated >= 0)
+			occupancy &= ~Bitboard.bit(vacated);
+		if (removed >= 0) {
+			occupancy &= ~Bitboard.bit(removed);
+			live &= ~Bitboard.bit(removed);
+		}
+		if (blocked >= 0) {
+			occupancy |= Bitboard.bit(blocked);
+			live &= ~Bitboard.bit(blocked);
+		}
+		return isAttacked(Bitboard.toSquare(k_loc), occupancy, live,
+				is_White_to_Move ? Piece.BLACK : Piece.WHITE);
+	}
+
+	/**
+	 * Checks whether a square is attacked by the pieces of one side, for a
+	 * given occupancy. This method does so by looking up the attacks of every
+	 * piece type from the square, since a piece on the square would attack
+	 * exactly the squares that the same piece attacks it from.
+	 * 
+	 * @param sq
+	 *            The bitboard square.
+	 * @param occupancy
+	 *            The bitboard of all the pieces that block lines.
+	 * @param live
+	 *            The bitboard of the squares whose pieces may attack, the
+	 *            others are treated as captured.
+	 * @param colour
+	 *            The colour of the attacking side.
+	 * @return true if the square is attacked, false otherwise.
+	 */
+	private boolean isAttacked(int sq, long occupancy, long live, byte colour) {
+		int base = colour == Piece.WHITE ? 0 : Bitboard.BLACK_OFFSET;
+		long queens = piece_boards[base + Piece.QUEEN];
+		long attackers = (Attacks.pawnAttacks(sq, -colour) & piece_boards[base
+				+ Piece.PAWN])
+				| (Attacks.knightAttacks(sq) & piece_boards[base + Piece.KNIGHT])
+				| (Attacks.kingAttacks(sq) & piece_boards[base + Piece.KING])
+				| (Attacks.bishopAttacks(sq, occupancy) & (piece_boards[base
+						+ Piece.BISHOP] | queens))
+				| (Attacks.rookAttacks(sq, occupancy) & (piece_boards[base
+						+ Piece.ROOK] | queens));
+		return (attackers & live) != 0;
+	}
+
+	/**
+	 * Computes the squares each piece type of the side to move would give
+	 * check from, and the pieces whose moves may discover a check, for
+	 * givesCheck().
+	 */
+	private void computeCheckInfo() {
+		if (check_squares == null)
+			check_squares = new long[6];
+		byte them = is_White_to_Move ? Piece.BLACK : Piece.WHITE;
+		int base = is_White_to_Move ? 0 : Bitboard.BLACK_OFFSET;
+		int k_sq = Long.numberOfTrailingZeros(piece_boards[Bitboard
+				.pieceIndex(Piece.KING, them)]);
+		long occupancy = white_occupancy | black_occupancy;
+		long ours = is_White_to_Move ? white_occupancy : black_occupancy;
+		check_squares[Piece.PAWN] = Attacks.pawnAttacks(k_sq, them);
+		check_squares[Piece.KNIGHT] = Attacks.knightAttacks(k_sq);
+		check_squares[Piece.BISHOP] = Attacks.bishopAttacks(k_sq, occupancy);
+		check_squares[Piece.ROOK] = Attacks.rookAttacks(k_sq, occupancy);
+		check_squares[Piece.QUEEN] = check_squares[Piece.BISHOP]
+				| check_squares[Piece.ROOK];
+		check_squares[Piece.KING] = 0;
+		long queens = piece_boards[base + Piece.QUEEN];
+		long snipers = (Attacks.rookAttacks(k_sq, 0) & (piece_boards[base
+				+ Piece.ROOK] | queens))
+				| (Attacks.bishopAttacks(k_sq, 0) & (piece_boards[base
+						+ Piece.BISHOP] | queens));
+		discovered_candidates = 0;
+		for (; snipers != 0; snipers &= snipers - 1) {
+			long line = Attacks.between(k_sq,
+					Long.numberOfTrailingZeros(snipers))
+					& occupancy;
+			if (Long.bitCount(line) == 1)
+				discovered_candidates |= line & ours;
+		}
+		check_info_current = true;
+	}
+
+	/**
+	 * Checks whether the sliding pieces of the side to move attack a square,
+	 * for a given occupancy.
+	 * 
+	 * @param sq
+	 *            The bitboard square, that of the opponent's king.
+	 * @param occupancy
+	 *            The bitboard of all the pieces that block lines.
+	 * @param rooks
+	 *            The bitboard of the rooks and queens.
+	 * @param bishops
+	 *            The bitboard of the bishops and queens.
+	 * @return true if one of the sliders attacks the square.
+	 */
+	private static boolean slidersCheck(int sq, long occupancy, long rooks,
+			long bishops) {
+		return (Attacks.rookAttacks(sq, occupancy) & rooks) != 0
+				|| (Attacks.bishopAttacks(sq, occupancy) & bishops) != 0;
+	}
+
+	/**
+	 * Returns the pieces of both sides that attack a square.
+	 * 
+	 * @param sq
+	 *            The bitboard square.
+	 * @param occupancy
+	 *            The bitboard of all the pieces that block lines.
+	 * @return The bitboard of the attackers, which may include pieces that
+	 *         are not in occupancy.
+	 */
+	private long attackersTo(int sq, long occupancy) {
+		int black = Bitboard.BLACK_OFFSET;
+		return (Attacks.pawnAttacks(sq, Piece.BLACK) & piece_boards[Piece.PAWN])
+				| (Attacks.pawnAttacks(sq, Piece.WHITE) & piece_boards[black
+						+ Piece.PAWN])
+				| (Attacks.knightAttacks(sq) & (piece_boards[Piece.KNIGHT] | piece_boards[black
+						+ Piece.KNIGHT]))
+				| (Attacks.kingAttacks(sq) & (piece_boards[Piece.KING] | piece_boards[black
+						+ Piece.KING])) | sliderAttackersTo(sq, occupancy);
+	}
+
+	/**
+	 * Returns the sliding pieces of both sides that attack a square, used to
+	 * find the x-ray attackers once a piece in front of them has captured.
+	 * 
+	 * @param sq
+	 *            The bitboard square.
+	 * @param occupancy
+	 *            The bitboard of all the pieces that block lines.
+	 * @return The bitboard of the sliding attackers.
+	 */
+	private long sliderAttackersTo(int sq, long occupancy) {
+		int black = Bitboard.BLACK_OFFSET;
+		long queens = piece_boards[Piece.QUEEN] | piece_boards[black + Piece.QUEEN];
+		return (Attacks.bishopAttacks(sq, occupancy) & (piece_boards[Piece.BISHOP]
+				| piece_boards[black + Piece.BISHOP] | queens))
+				| (Attacks.rookAttacks(sq, occupancy) & (piece_boards[Piece.ROOK]
+						| piece_boards[black + Piece.ROOK] | queens));
+	}
+
+	/**
+	 * Returns the least valuable of a set of pieces of one side.
+	 * 
+	 * @param side
+	 *            The bitboard of the pieces, which must not be empty.
+	 * @return The bitboard of the least valuable piece.
+	 */
+	private long leastValuable(long side) {
+		for (byte type : SEE_ORDER) {
+			long board = side
+					& (piece_boards[type] | piece_boards[Bitboard.BLACK_OFFSET
+							+ type]);
+			if (board != 0)
+				return board & -board;
+		}
+		return side & -side;
+	}
+
+	/**
+	 * Returns the value of a piece type in static exchanges.
+	 * 
+	 * @param type
+	 *            The piece type.
+	 * @return The value of the type, SEE_KING_VALUE for the king.
+	 */
+	private static int seeValue(byte type) {
+		return type == Piece.KING ? SEE_KING_VALUE : Piece.valueOf(type);
+	}
+
+	/**
+	 * Returns the bitboard square a move lands on, the square of its
+	 * exchange.
+	 * 
+	 * @param move
+	 *            The packed move.
+	 * @return The bitboard square.
+	 */
+	private int seeTarget(int move) {
+		byte end = Move.endOf(move);
+		if (Move.modifierOf(move) == 5)
+			end += (is_White_to_Move ? Piece.WHITE : Piece.BLACK) * UP_MOVE;
+		return Bitboard.toSquare(end);
+	}
+
+	/**
+	 * Returns the value of the piece a move captures.
+	 * 
+	 * @param move
+	 *            The packed move.
+	 * @return The value of the captured piece, 0 if there is none.
+	 */
+	private int seeCaptured(int move) {
+		byte victim = mailbox[Bitboard.toSquare(Move.endOf(move))];
+		return victim == Bitboard.EMPTY ? 0 : seeValue(Bitboard.typeOf(victim));
+	}
+
+	/**
+	 * Returns the value of the piece that stands on the destination square
+	 * after a move, the promoted piece for a promotion.
+	 * 
+	 * @param move
+	 *            The packed move.
+	 * @param mod
+	 *            The modifier of the move.
+	 * @return The value of the piece.
+	 */
+	private int seeMover(int move, byte mod) {
+		if (mod >= 6 && mod <= 9)
+			return seeValue((byte) (mod - 5));
+		if (mod >= 16 && mod <= 19)
+			return seeValue((byte) (mod - 15));
+		return seeValue(Bitboard.typeOf(mailbox[Bitboard.toSquare(Move
+				.startOf(move))]));
+	}
+
+	/**
+	 * Returns the material a promotion gains.
+	 * 
+	 * @param mod
+	 *            The modifier of the move.
+	 * @return The value of the new piece less a pawn, 0 if the move does not
+	 *         promote.
+	 */
+	private static int seePromotion(byte mod) {
+		if (mod >= 6 && mod <= 9)
+			return seeValue((byte) (mod - 5)) - Piece.valueOf(Piece.PAWN);
+		if (mod >= 16 && mod <= 19)
+			return seeValue((byte) (mod - 15)) - Piece.valueOf(Piece.PAWN);
 		return 0;
 	}
 
 	/**
-	 * Looks for the index of a certain piece in an appropriate map.
+	 * Fills the bitboards and the mailbox from two piece maps.
 	 * 
-	 * @param p
-	 *            The piece to look for.
-	 * @param map
-	 *            The map to look in. True for White, false for Black.
-	 * @return The index in the appropriate map that contains the specified
-	 *         piece. -1 if no such piece exists.
-	 */
-	private int getIndiceOfPiece(byte location, boolean map) {
-		int ind = -1;
-		Piece[] mapToSearch = map ? white_map : black_map;
-		for (int i = 0; i < 16; i++)
-			if (location == mapToSearch[i].getPosition())
-				ind = i;
-		return ind;
-	}
-
-	private Piece[] getThreateningPieces(byte loc, boolean col) {
-		Vector<Piece> threateningPieces = new Vector<Piece>(10, 3);
-		byte o_col = col ? Piece.BLACK : Piece.WHITE;
-		byte c_col = (byte) ((-1) * o_col);
-		byte type;
-		boolean loc_occupied = !getSquareOccupier(loc).equals(
-				Piece.getNullPiece());
-		boolean melee;
-		Piece c_pos;
-		int next_pos = 0;
+	 * @param w_map
+	 *            An array containing all the white pieces.
+	 * @param b_map
+	 *            An array containing all the black pieces.
+	 */
+	private void setPieces(Piece[] w_map, Piece[] b_map) {
+		piece_boards = new long[Bitboard.PIECE_BOARDS];
+		mailbox = new byte[64];
+		Arrays.fill(mailbox, Bitboard.EMPTY);
+		for (Piece p : w_map)
+			if (p.exists())
+				placePiece(piece_boards, mailbox, Bitboard.pieceIndex(
+						p.getType(), p.getColour()), Bitboard.toSquare(p
+						.getPosition()));
+		for (Piece p : b_map)
+			if (p.exists())
+				placePiece(piece_boards, mailbox, Bitboard.pieceIndex(
+						p.getType(), p.getColour()), Bitboard.toSquare(p
+						.getPosition()));
+		updateOccupancy();
+		attacks = new long[64];
+		attacks_changed = white_occupancy | black_occupancy;
+		white_material = black_material = 0;
+		for (byte type = Piece.PAWN; type < Piece.KING; type++) {
+			white_material += getPieceCount(type, Piece.WHITE) * Piece.valueOf(type);
+			black_material += getPieceCount(type, Piece.BLACK) * Piece.valueOf(type);
+		}
+	}
 
-		for (int i = 0; i < 8; i++) {
-			next_pos = loc + RADIALS[i];
-			melee = true;
-			while ((next_pos & 0x88) == 0) {
-				c_pos = getSquareOccupier((byte) next_pos);
-				if (c_pos.getColour() == c_col)
-					break;
-				if ((type = c_pos.getType()) != Piece.NULL) {
-					if (loc_occupied
-							&& type == Piece.PAWN
-							&& i < 4
-							&& ((c_col > 0 && i % 2 == 0) || (c_col < 0 && i % 2 == 1))
-							&& melee)
-						threateningPieces.add(c_pos);
-					if (!loc_occupied && type == Piece.PAWN && i + c_col == 5) {
-						int dist = (loc - next_pos) * o_col;
-						if (dist == 0x10) {
-							threateningPieces.add(c_pos);
-						} else if (dist == 0x20) {
-							if (o_col == Piece.WHITE && next_pos >> 4 == 1)
-								threateningPieces.add(c_pos);
-							if (o_col == Piece.BLACK && next_pos >> 4 == 6)
-								threateningPieces.add(c_pos);
-						}
-					}
-					if (type == Piece.BISHOP && i < 4)
-						threateningPieces.add(c_pos);
-					if (type == Piece.QUEEN)
-						threateningPieces.add(c_pos);
-					if (type == Piece.ROOK && i > 3)
-						threateningPieces.add(c_pos);
-					break;
-				}
-				melee = false;
-				next_pos += RADIALS[i];
-			}
+	/**
+	 * Adds to the material of one side, for captures and promotions.
+	 * 
+	 * @param colour
+	 *            The colour of the side.
+	 * @param delta
+	 *            The material to add, negative to take material away.
+	 */
+	private void addMaterial(byte colour, int delta) {
+		if (colour == Piece.WHITE)
+			white_material += delta;
+		else
+			black_material += delta;
+	}
+
+	/**
+	 * Forgets everything that was derived from the board, after a move was
+	 * made or unmade in place.
+	 */
+	private void clearCache() {
+		all_moves = null;
+		is_in_check = -1;
+		white_map = null;
+		black_map = null;
+		lz_current = false;
+		check_info_current = false;
+	}
+
+	/**
+	 * Converts an array of castling rights into castling flags.
+	 * 
+	 * @param castling_rights
+	 *            The castling rights, in the order of getCastlingRights().
+	 * @return The castling flags, one bit per right.
+	 */
+	private static byte toCastlingFlags(boolean[] castling_rights) {
+		byte flags = 0;
+		for (int i = 0; i < 4; i++)
+			if (castling_rights[i])
+				flags |= 1 << i;
+		return flags;
+	}
+
+	/**
+	 * Returns the squares whose occupancy a move changes, which are its start
+	 * and end squares, the squares of the king when castling and the square
+	 * the pawn lands on when capturing en passant.
+	 * 
+	 * @param move
+	 *            The packed move.
+	 * @param c_col
+	 *            The colour of the side making the move.
+	 * @return The bitboard of the changed squares.
+	 */
+	private static long changedSquares(int move, byte c_col) {
+		byte end = Move.endOf(move);
+		long changed = Bitboard.bit(Move.startOf(move)) | Bitboard.bit(end);
+		switch (Move.modifierOf(move)) {
+		case 1:
+			return changed | Bitboard.bit(4) | Bitboard.bit(6);
+		case 2:
+			return changed | Bitboard.bit(0x74) | Bitboard.bit(0x76);
+		case 3:
+			return changed | Bitboard.bit(4) | Bitboard.bit(2);
+		case 4:
+			return changed | Bitboard.bit(0x74) | Bitboard.bit(0x72);
+		case 5:
+			return changed | Bitboard.bit(end + c_col * UP_MOVE);
 		}
-		for (byte diff : KNIGHT_MOVES) {
-			c_pos = getSquareOccupier((byte) (loc + diff), !col);
-			if (c_pos.getType() == Piece.KNIGHT)
-				threateningPieces.add(c_pos);
+		return changed;
+	}
+
+	/**
+	 * Brings the attack table up to date after the occupancy of some squares
+	 * changed. The attacks of the pieces on those squares are recomputed, and
+	 * so are the attacks of the sliding pieces that attacked any of them,
+	 * since only their lines can have been opened or blocked. This holds for
+	 * the changes of any number of moves taken together.
+	 */
+	private void updateAttacks() {
+		long changed = attacks_changed;
+		attacks_changed = 0;
+		long occupancy = white_occupancy | black_occupancy;
+		for (long sqs = changed; sqs != 0; sqs &= sqs - 1) {
+			int sq = Long.numberOfTrailingZeros(sqs);
+			attacks[sq] = mailbox[sq] == Bitboard.EMPTY ? 0 : attacksOf(
+					mailbox[sq], sq, occupancy);
 		}
-		Piece[] toReturn = new Piece[threateningPieces.size()];
-		return (Piece[]) threateningPieces.toArray(toReturn);
-	}
-
-	private LinkedList<Move> getThreateningMoves(byte loc, boolean col) {
-		Piece[] threateningPiece = getThreateningPieces(loc, col);
-		boolean occupied = getSquareOccupier(loc).getColour() == Piece.NULL_COL ? false
-				: true;
-		LinkedList<Move> threateningMove = new LinkedList<Move>();
-		byte start_loc = 0;
-		for (Piece p : threateningPiece) {
-			start_loc = p.getPosition();
-			Move move;
-			if (p.getType() == Piece.PAWN
-					&& Math.abs((loc - start_loc)) == 0x20) {
-				move = new Move(start_loc, loc, (byte) 20);
-			} else
-				move = new Move(start_loc, loc, occupied ? (byte) 10 : (byte) 0);
-			threateningMove.add(move);
+		long sliders = 0;
+		for (int base = 0; base < Bitboard.PIECE_BOARDS; base += Bitboard.BLACK_OFFSET)
+			sliders |= piece_boards[base + Piece.ROOK]
+					| piece_boards[base + Piece.BISHOP]
+					| piece_boards[base + Piece.QUEEN];
+		for (sliders &= ~changed; sliders != 0; sliders &= sliders - 1) {
+			int sq = Long.numberOfTrailingZeros(sliders);
+			if ((attacks[sq] & changed) != 0)
+				attacks[sq] = attacksOf(mailbox[sq], sq, occupancy);
 		}
-		return threateningMove;
-	}
-
-	private byte getDifference(byte loc, byte k_loc) {
-		byte d = 0, next_loc = k_loc;
-		for (byte diff : RADIALS) {
-			next_loc = k_loc;
-			do {
-				next_loc += diff;
-				if (next_loc == loc) {
-					d = diff;
-					break;
-				}
-			} while ((next_loc & 0x88) == 0);
-			if (d != 0)
-				break;
+	}
+
+	/**
+	 * Returns the squares attacked by a piece.
+	 * 
+	 * @param index
+	 *            The bitboard index of the piece.
+	 * @param sq
+	 *            The bitboard square of the piece.
+	 * @param occupancy
+	 *            The bitboard of all the pieces on the board.
+	 * @return The bitboard of the attacked squares.
+	 */
+	private static long attacksOf(int index, int sq, long occupancy) {
+		switch (Bitboard.typeOf(index)) {
+		case Piece.PAWN:
+			return Attacks.pawnAttacks(sq, Bitboard.colourOf(index));
+		case Piece.ROOK:
+			return Attacks.rookAttacks(sq, occupancy);
+		case Piece.KNIGHT:
+			return Attacks.knightAttacks(sq);
+		case Piece.BISHOP:
+			return Attacks.bishopAttacks(sq, occupancy);
+		case Piece.QUEEN:
+			return Attacks.queenAttacks(sq, occupancy);
+		default:
+			return Attacks.kingAttacks(sq);
 		}
-		return d;
 	}
 
-	private void resetActivePlayer() {
-		is_White_to_Move = !is_White_to_Move;
+	/**
+	 * Recomputes the occupancy bitboards from the piece bitboards.
+	 */
+	private void updateOccupancy() {
+		white_occupancy = 0;
+		black_occupancy = 0;
+		for (int i = 0; i < Bitboard.BLACK_OFFSET; i++) {
+			white_occupancy |= piece_boards[i];
+			black_occupancy |= piece_boards[i + Bitboard.BLACK_OFFSET];
+		}
+	}
+
+	/**
+	 * Places a piece on an empty square of a set of bitboards and a mailbox.
+	 * 
+	 * @param boards
+	 *            The piece bitboards.
+	 * @param box
+	 *            The mailbox.
+	 * @param index
+	 *            The bitboard index of the piece.
+	 * @param sq
+	 *            The bitboard square to place the piece on.
+	 */
+	private static void placePiece(long[] boards, byte[] box, int index, int sq) {
+		boards[index] |= 1L << sq;
+		box[sq] = (byte) index;
+	}
+
+	/**
+	 * Removes the piece on a square of a set of bitboards and a mailbox.
+	 * 
+	 * @param boards
+	 *            The piece bitboards.
+	 * @param box
+	 *            The mailbox.
+	 * @param sq
+	 *            The bitboard square to empty.
+	 */
+	private static void removePiece(long[] boards, byte[] box, int sq) {
+		boards[box[sq]] &= ~(1L << sq);
+		box[sq] = Bitboard.EMPTY;
+	}
+
+	/**
+	 * Moves the piece on a square to an empty square of a set of bitboards
+	 * and a mailbox.
+	 * 
+	 * @param boards
+	 *            The piece bitboards.
+	 * @param box
+	 *            The mailbox.
+	 * @param from
+	 *            The bitboard square of the piece.
+	 * @param to
+	 *            The bitboard square to move the piece to.
+	 */
+	private static void movePiece(long[] boards, byte[] box, int from, int to) {
+		byte index = box[from];
+		boards[index] ^= (1L << from) | (1L << to);
+		box[from] = Bitboard.EMPTY;
+		box[to] = index;
 	}
 
 	private void orderMoves(Move[] killers){
@@ -1191,12 +2103,12 @@ public final class Position {
 		//checkmates
 		Move[] moves = all_moves;
 		short[] moveValues = new short[moves.length];
-		long c_sqs = lz.get(is_White_to_Move ? lz.BLACK_SENTINELS : lz.WHITE_SENTINELS);
+		long c_sqs = getLorenz().get(is_White_to_Move ? Lorenz.BLACK_SENTINELS : Lorenz.WHITE_SENTINELS);
 		for (int i = 0; i < moves.length; i++){
 			Move m = moves[i];
 			byte endSq = m.getEndSquare();
 			boolean kmove = false;
-			for(Move k_m: killers){
+			if (killers != null) for(Move k_m: killers){
 				if(k_m != null){
 					if(k_m.isEqual(m)) {
 						moveValues[i] = - 15000;
@@ -1212,9 +2124,9 @@ public final class Position {
 			//check capture types
 			if(!kmove){
 				if (getSquareOccupier(m.getEndSquare()).getType() != Piece.NULL){
-					moveValues[i] = (short) (getSquareOccupier(m.getStartSquare()).getPieceValue() - getSquareOccupier(m.getEndSquare()).getPieceValue()-10000);
+					moveValues[i] = (short) (-10000 - see(m));
 				}
-				else if (this.makeMove(m).isInCheck(false) == true) moveValues[i] = -8000;
+				else if (givesCheck(m.toInt(this))) moveValues[i] = -8000;
 				else if ((c_sqs >> ((endSq >> 4 + endSq & 7) - 1) & 1) == 1) moveValues[i] = - 1000;
 				else moveValues[i] = 0;
 			}
@@ -0,0 +1,80 @@
+package tables;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A Round that keeps its entries in direct byte buffers, outside of the Java heap. The garbage
+ * collector never scans or moves them, so the table can take many gigabytes without slowing the
+ * collections down, and it is indexed with longs, past the 2^31 longs of a Java array. A byte
+ * buffer only holds 2^31 bytes, so the entries are spread over as many 1 GB chunks as needed.
+ * The memory is given back when the chunks are collected after a resize(). The chunks may also be
+ * mapped from a file saved by RoundFile.
+ * @author Spork Innovation Technologies
+ */
+public class OffHeapRound extends Round {
+	// ----------------------Constants----------------------
+	/** The number of bits of the index of a long within a chunk. */
+	static final int CHUNK_BITS = 27;
+	/** The mask of the index of a long within a chunk. */
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+	/** The number of zero bytes written at once by erase(). */
+	private static final int ZEROS_SIZE = 1 << 16;
+	// ----------------------End of Constants----------------------
+	// ----------------------Table Entry Fields----------------------
+	private ByteBuffer[] chunks;		// the entries, 2^CHUNK_BITS longs per chunk
+	// ----------------------End of Table Entry Fields----------------------
+	// ----------------------Constructor----------------------
+	/**
+	 * Constructs an off-heap transposition table of about the given size.
+	 * @param megabytes The size of the table in megabytes, rounded down to a power of two number
+	 * of buckets.
+	 */
+	public OffHeapRound(int megabytes){
+		super(megabytes);
+	}
+	/**
+	 * Constructs an off-heap transposition table around chunks that already hold entries.
+	 * @param chunks The chunks, 2^CHUNK_BITS longs each or a single smaller one.
+	 * @param buckets The number of buckets held by the chunks.
+	 * @param generation The generation of the last search that wrote to the chunks.
+	 */
+	OffHeapRound(ByteBuffer[] chunks, long buckets, int generation){
+		super(buckets, generation);
+		this.chunks = chunks;
+	}
+	// ----------------------End of Constructor----------------------
+	// ----------------------Storage----------------------
+	@Override
+	protected long getMaxLongs(){
+		return 1L << 40;
+	}
+	@Override
+	protected void allocate(long longs){
+		chunks = null;
+		long chunk_longs = Math.min(longs, 1L << CHUNK_BITS);
+		ByteBuffer[] fresh = new ByteBuffer[(int) (longs / chunk_longs)];
+		for (int i = 0; i < fresh.length; i++)
+			fresh[i] = ByteBuffer.allocateDirect((int) (chunk_longs * 8)).order(ByteOrder.nativeOrder());
+		chunks = fresh;
+	}
+	@Override
+	protected long load(long index){
+		return chunks[(int) (index >>> CHUNK_BITS)].getLong((int) (index & CHUNK_MASK) << 3);
+	}
+	@Override
+	protected void store(long index, long value){
+		chunks[(int) (index >>> CHUNK_BITS)].putLong((int) (index & CHUNK_MASK) << 3, value);
+	}
+	@Override
+	protected void erase(){
+		byte[] zeros = new byte[ZEROS_SIZE];
+		for (ByteBuffer chunk : chunks){
+			ByteBuffer view = chunk.duplicate();
+			view.clear();
+			while (view.hasRemaining())
+				view.put(zeros, 0, Math.min(zeros.length, view.remaining()));
+		}
+	}
+	// ----------------------End of Storage----------------------
+}
\ No newline at end of file
@@ -0,0 +1,129 @@
+package tables;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The pawn hash table for Myriad. The pawn structure features of a position only depend on where
+ * the pawns are, and the pawns rarely move between sibling nodes of the search, so the features are
+ * stored under the pawn-only Zobrist key of the position. Every entry is a fixed number of packed
+ * feature words, the order of which is up to the evaluator. Entries are always overwritten.
+ *
+ * The table is shared by all the search threads without any lock, as Round is: every entry is the
+ * key XOR-ed with all of its words, followed by the words. If two threads write the same entry at
+ * once, the words of one may end up next to the check of the other, which no longer XORs back to
+ * either key and thus reads as a miss. The hit and miss counters are kept in one slot per thread,
+ * each on a cache line of its own, so that counting does not make the threads wait for each other.
+ * @author Spork Innovation Technologies
+ */
+public class PawnTable {
+	// ----------------------Table Entry Fields----------------------
+	private final long[] entries;		// key XOR words, then the words, for every entry
+	// ----------------------Statistics----------------------
+	private final AtomicLongArray counters;	// hits then misses, one cache line per slot
+	// ----------------------Constants----------------------
+	private final int MASK_INDEX;
+	/** The number of counter slots, which the threads are spread over by their ids. */
+	private static final int COUNTER_SLOTS = 64;
+	/** The number of longs between two counter slots, one cache line. */
+	private static final int COUNTER_STRIDE = 8;
+	/** The number of entries of the table. */
+	public final int size;
+	/** The number of feature words per entry. */
+	public final int width;
+	// ----------------------End of Constants----------------------
+	// ----------------------Constructor----------------------
+	/**
+	 * Constructs a pawn hash table with 2^bits entries.
+	 * @param bits The number of bits available for address indexing.
+	 * @param width The number of feature words stored per entry.
+	 */
+	public PawnTable(int bits, int width){
+		size = 1 << bits;
+		this.width = width;
+		entries = new long[size * (width + 1)];
+		counters = new AtomicLongArray(COUNTER_SLOTS * COUNTER_STRIDE);
+		MASK_INDEX = size - 1;
+	}
+	// ----------------------End of Constructor----------------------
+	// ----------------------Method----------------------
+	/**
+	 * Looks up the feature words of a pawn structure and counts the probe as a hit or a miss.
+	 * @param key The pawn hash of the position.
+	 * @param into The array to copy the feature words into, at least width long. Its words are
+	 * meaningless if the structure was not found.
+	 * @return Whether or not the words were found and copied.
+	 */
+	public boolean get(long key, long[] into){
+		int index = (int) (key & MASK_INDEX) * (width + 1);
+		long check = entries[index], used = check;
+		for (int i = 0; i < width; i++){
+			long word = entries[index + 1 + i];
+			into[i] = word;
+			check ^= word;
+			used |= word;
+		}
+		int slot = counterSlot();
+		if (check != key || used == 0){
+			counters.incrementAndGet(slot + 1);
+			return false;
+		}
+		counters.incrementAndGet(slot);
+		return true;
+	}
+	/**
+	 * Stores the feature words of a pawn structure, replacing whatever was in its entry.
+	 * @param key The pawn hash of the position.
+	 * @param from The feature words to store, at least width long.
+	 */
+	public void set(long key, long[] from){
+		int index = (int) (key & MASK_INDEX) * (width + 1);
+		long check = key;
+		for (int i = 0; i < width; i++){
+			entries[index + 1 + i] = from[i];
+			check ^= from[i];
+		}
+		entries[index] = check;
+	}
+	/**
+	 * Returns the number of probes that found their pawn structure.
+	 * @return the number of hits.
+	 */
+	public long getHits(){
+		return sumCounters(0);
+	}
+	/**
+	 * Returns the number of probes that did not find their pawn structure.
+	 * @return the number of misses.
+	 */
+	public long getMisses(){
+		return sumCounters(1);
+	}
+	/**
+	 * Empties the table and resets the hit and miss counters. Must not be called during a search.
+	 */
+	public void clear(){
+		Arrays.fill(entries, 0);
+		for (int i = 0; i < counters.length(); i++) counters.set(i, 0);
+	}
+	// ----------------------End of Method----------------------
+	// ----------------------Helper Methods----------------------
+	/**
+	 * Returns the counter slot of the current thread.
+	 * @return The index of its hit counter, its miss counter being the next one.
+	 */
+	private static int counterSlot(){
+		return (int) (Thread.currentThread().getId() & (COUNTER_SLOTS - 1)) * COUNTER_STRIDE;
+	}
+	/**
+	 * Adds up a counter over all the slots.
+	 * @param offset 0 for the hits, 1 for the misses.
+	 * @return The total.
+	 */
+	private long sumCounters(int offset){
+		long total = 0;
+		for (int i = offset; i < counters.length(); i += COUNTER_STRIDE) total += counters.get(i);
+		return total;
+	}
+	// ----------------------End of Helper Methods----------------------
+}
\ No newline at end of file
@@ -1,60 +1,141 @@
 package tables;
 
+import java.util.Arrays;
+
 import rules.*;
 
 /**
  * The transposition table for Myriad. Organizes the information into a bitstring, which is stores
  * important data. The table will prefer deeper entries to shallower ones. E.g. if depth 6 and 4
  * there are 3! ways to reach the depth 6 position, but only 2! to reach the depth 4 position.
+ *
+ * Every entry is two adjacent longs, the bitstring with the level of the entry in it, and the hash
+ * of the position XOR-ed with that bitstring. The table is shared by all the search threads
+ * without any lock: if two threads write the same entry at once, one thread's bitstring may end up
+ * next to the other's hash, which no longer XORs back to either hash and thus reads as a miss.
+ *
+ * The entries are grouped in buckets of four, one cache line, and a hash may be stored in any
+ * entry of its bucket. Every search starts a new generation (see newSearch()), which is stored in
+ * the entries it writes. When a bucket is full, the entry replaced is the one with the lowest level
+ * once its age, the number of generations since it was written, is taken off. Entries left over
+ * from the previous moves are thus replaced first, even if they were searched deeper.
+ *
+ * The entries are kept in a Java array, which caps the table at 8 GB. The storage methods,
+ * allocate(), load(), store() and erase(), are overridden by OffHeapRound to keep them elsewhere.
  * @author Andy Huang
  */
-public class Round {
+public class Round implements TranspositionTable {
 	// ----------------------Table Entry Fields----------------------
-	private long[] hashes;				// true hash value
-	private short[] depth;				// depth of hash position
-	private long[] bitstring_descript;	// bitstring descriptions
-	public Move[] killer_moves;         // two of the moves that have caused cutoffs 
+	private long[] entries;				// hash XOR bitstring, then bitstring, for every entry
+	private int generation;				// the generation of the current search
 	// ----------------------Constants----------------------
-	private final int MASK_INDEX;
-	public final int size;
-	public static final long SCORE_RSH = 23;
-	public static final long EXACT_RSH = 22;
-	public static final long BOUND_RSH = 21;
-	public static final long STARTSQ_RSH = 13;
-	public static final long ENDSQ_RSH = 5;
+	private long MASK_INDEX;
+	private long size;
+	/** The size of the table in megabytes when none is given. */
+	public static final int DEFAULT_MEGABYTES = 16;
+	/** The number of entries per bucket. */
+	public static final int BUCKET_SIZE = 4;
+	/** The number of levels an entry loses for every generation of age, when replacing. */
+	private static final int AGE_WEIGHT = 8;
+	public static final long SCORE_RSH = 40;
+	public static final long GENERATION_RSH = 32;
+	public static final long LEVEL_RSH = 24;
+	public static final long EXACT_RSH = 23;
+	public static final long BOUND_RSH = 22;
+	public static final long STARTSQ_RSH = 14;
+	public static final long ENDSQ_RSH = 6;
 	public static final long MODIFIER_RSH = 1;
 	public static final int MASK_BIT = 1;
 	public static final int MASK_4BIT = 0xf;
+	public static final int MASK_5BIT = 0x1f;
 	public static final int MASK_BYTE = 0xff;
+	/** The largest score that fits in a bitstring, the mate scores are clamped to it. */
+	public static final long MAX_SCORE = (1L << (63 - SCORE_RSH)) - 1;
 	// ----------------------End of Constants----------------------
 	// ----------------------Constructor----------------------
 	/**
-	 * Constructs a Round (transposition table) object with a 2^bits array indexes.
-	 * @param bits The number of bits available for address indexing.
-	 */
-	public Round(int bits){
-		size = (int)(Math.pow(2, bits));		
-		hashes = new long[size];
-		depth = new short[size];
-		killer_moves = new Move[2];
-		bitstring_descript = new long[size];
-		int temp = 0;
-		for(int i = 0; i < bits; i++){
-			temp |= 1 << i;
-		}
-		MASK_INDEX = temp;
+	 * Constructs a Round (transposition table) object of about the given size.
+	 * @param megabytes The size of the table in megabytes, rounded down to a power of two number
+	 * of buckets.
+	 */
+	public Round(int megabytes){
+		resize(megabytes);
+	}
+	/**
+	 * Constructs a Round object around a storage that the subclass sets up itself, e.g. one read
+	 * back by RoundFile.
+	 * @param buckets The number of buckets of the storage, a power of two.
+	 * @param generation The generation of the last search that wrote to the storage.
+	 */
+	Round(long buckets, int generation){
+		setBuckets(buckets);
+		this.generation = generation & MASK_BYTE;
 	}
 	// ----------------------End of Constructor----------------------
 	// ----------------------Method----------------------
 	/**
 	 * Returns the maximum capacity of this Round object.
-	 * @return the maximum capacity of this Round object
+	 * @return the maximum capacity of this Round object, in entries
 	 */
-	public int getSize(){
+	public long getSize(){
 		return size;
 	}
 	/**
-	 * Adds an element to the hash table. 
+	 * Reallocates the table to about the given size, which empties it. Must not be called during
+	 * a search.
+	 * @param megabytes The size of the table in megabytes, at least 1.
+	 */
+	public void resize(int megabytes){
+		if (megabytes < 1) throw new IllegalArgumentException("The table needs at least 1 MB.");
+		long buckets = Long.highestOneBit(Math.min(((long) megabytes << 20) / (BUCKET_SIZE * 16),
+				getMaxLongs() / (BUCKET_SIZE * 2)));
+		allocate(buckets * BUCKET_SIZE * 2);
+		setBuckets(buckets);
+		generation = 0;
+	}
+	/**
+	 * Returns the number of buckets of the table.
+	 * @return The number of buckets, a power of two.
+	 */
+	long getBuckets(){
+		return MASK_INDEX + 1;
+	}
+	/**
+	 * Returns the generation of the current search.
+	 * @return The generation, from 0 to 255.
+	 */
+	int getGeneration(){
+		return generation;
+	}
+	/**
+	 * Empties the table and starts again from the first generation. Must not be called during a
+	 * search.
+	 */
+	public void clear(){
+		erase();
+		generation = 0;
+	}
+	/**
+	 * Starts a new generation, to be called once before every search.
+	 */
+	public void newSearch(){
+		generation = (generation + 1) & MASK_BYTE;
+	}
+	/**
+	 * Returns how full the table is with entries of the current generation, estimated from its
+	 * first thousand entries.
+	 * @return The number of entries of the current generation per thousand.
+	 */
+	public int hashfull(){
+		int sample = (int) Math.min(1000, size), used = 0;
+		for (int i = 0; i < sample; i++){
+			long string = load(2 * i + 1);
+			if (!isEmpty(2 * i) && getStoredGeneration(string) == generation) used++;
+		}
+		return used * 1000 / sample;
+	}
+	/**
+	 * Adds an element to the hash table.
 	 * If two elements have the same hash, the old on will ALWAYS be overwritten
 	 * @param hash The true Zobrist hash of the position.
 	 * @param score The score (evaluated or bound) of the position.
@@ -64,59 +145,203 @@ public class Round {
 	 * @param move The refutation move if the score is a bound.
 	 * @return Whether or not the entry was stored into the hash table.
 	 */
-	public boolean set(long hash, long score, short level, boolean exactValue, boolean bound, 
+	public boolean set(long hash, long score, short level, boolean exactValue, boolean bound,
 					   Move move, boolean whiteMove){
-		boolean placed = false;
-		if(exactValue && bound){
-			for(int i = 0; i < killer_moves.length; i++){
-				if(killer_moves[i] == null) {
-					killer_moves[i] = move; 
-					placed = true; 
-					break;
-				}
+		return set(hash, score, level, exactValue, bound,
+				move == null ? Move.NO_MOVE : Move.pack(move.getStartSquare(), move.getEndSquare(),
+						move.getModifier(), Piece.NULL), whiteMove);
+	}
+	/**
+	 * Adds an element to the hash table, with the refutation move in its packed form. An entry of
+	 * the same hash is only replaced by a deeper one, an exact one or if it is from an older
+	 * search, and keeps its move if the new entry has none. Otherwise the least valuable entry of
+	 * the bucket is replaced.
+	 * @param hash The true Zobrist hash of the position.
+	 * @param score The score (evaluated or bound) of the position.
+	 * @param level The level of the position.
+	 * @param exactValue Whether or not the score is a bound.
+	 * @param bound An alpha or beta bound? True if alpha, false if beta.
+	 * @param move The packed refutation move if the score is a bound, Move.NO_MOVE if none.
+	 * @return Whether or not the entry was stored into the hash table.
+	 */
+	public boolean set(long hash, long score, short level, boolean exactValue, boolean bound,
+					   int move, boolean whiteMove){
+		//System.out.println("Set called with: " + score + "," + hash);
+		long bucket = (hash & MASK_INDEX) * BUCKET_SIZE * 2, index = -1;
+		int worth = Integer.MAX_VALUE;
+		for (long i = bucket; i < bucket + BUCKET_SIZE * 2; i += 2){
+			long old_string = load(i + 1);
+			if ((load(i) ^ old_string) == hash){
+				if (getStoredLevel(old_string) >= level && !exactValue
+						&& getStoredGeneration(old_string) == generation) return false;
+				if (move == Move.NO_MOVE) move = getMove(old_string);
+				index = i;
+				break;
 			}
-			if(!placed){
-				for(int i = 1; i < killer_moves.length; i++) killer_moves[i] = killer_moves[i-1];
-				killer_moves[0] = move;
+			int old_worth = isEmpty(i) ? Integer.MIN_VALUE : getStoredLevel(old_string)
+					- AGE_WEIGHT * ((generation - getStoredGeneration(old_string)) & MASK_BYTE);
+			if (old_worth < worth){
+				worth = old_worth;
+				index = i;
 			}
 		}
-		//System.out.println("Set called with: " + score + "," + hash);
-		int index = (int)(hash & (MASK_INDEX));
-		if (hashes[index] == 0 || depth[index] < level || exactValue && bound){
-			hashes[index] = hash;
-			depth[index] = level;
-			long string = 0;
-			// construct bitstring, see constants for rsh and mask values.
-			string = score; 
-			string = (string << 1) + (exactValue ? 1 : 0);
-			string = (string << 1) + (bound ? 1 : 0);
-			if (move != null){
-				string = (string << 8) + move.getStartSquare();
-				string = (string << 8) + move.getEndSquare();
-				string = (string << 4) + move.getModifier();
-			} else string <<= 20;
-			string = (string << 1) + (whiteMove ? 1 : 0);
-			bitstring_descript[index] = string;
-			return true;
-		}
-		return false;
+		long string = 0;
+		// construct bitstring, see constants for rsh and mask values. The score is clamped
+		// to MAX_SCORE, which only the mate scores exceed.
+		string = Math.max(-MAX_SCORE, Math.min(MAX_SCORE, score));
+		string = (string << 8) + generation;
+		string = (string << 8) + (Math.min(level, MASK_BYTE) & MASK_BYTE);
+		string = (string << 1) + (exactValue ? 1 : 0);
+		string = (string << 1) + (bound ? 1 : 0);
+		string = (string << 8) + Move.startOf(move);
+		string = (string << 8) + Move.endOf(move);
+		string = (string << 5) + Move.modifierOf(move);
+		string = (string << 1) + (whiteMove ? 1 : 0);
+		store(index, hash ^ string);
+		store(index + 1, string);
+		return true;
+	}
+	/**
+	 * Returns the packed refutation move stored in a descriptor bitstring.
+	 * @param string The descriptor bitstring, as returned by get().
+	 * @return The packed move without its captured piece, Move.NO_MOVE if none was stored.
+	 */
+	public static int getMove(long string){
+		return Move.pack((int)(string >> STARTSQ_RSH) & MASK_BYTE, (int)(string >> ENDSQ_RSH) & MASK_BYTE,
+				(int)(string >> MODIFIER_RSH) & MASK_5BIT, Piece.NULL);
+	}
+	/**
+	 * Returns the score stored in a descriptor bitstring.
+	 * @param string The descriptor bitstring, as returned by get().
+	 * @return The score, from -MAX_SCORE to MAX_SCORE.
+	 */
+	public static long getStoredScore(long string){
+		return string >> SCORE_RSH;
+	}
+	/**
+	 * Returns whether or not the score of a descriptor bitstring is exact.
+	 * @param string The descriptor bitstring, as returned by get().
+	 * @return True if the score is exact, false if it is a bound.
+	 */
+	public static boolean isExact(long string){
+		return ((string >> EXACT_RSH) & MASK_BIT) != 0;
 	}
 	/**
-	 * Gets a hash from the hash table. 
+	 * Returns whether or not the score of a descriptor bitstring is an alpha bound, the most the
+	 * position is worth, rather than a beta bound, the least it is worth.
+	 * @param string The descriptor bitstring, as returned by get().
+	 * @return True if the score is an alpha bound, false if it is a beta bound. Meaningless if the
+	 * score is exact.
+	 */
+	public static boolean isAlphaBound(long string){
+		return ((string >> BOUND_RSH) & MASK_BIT) != 0;
+	}
+	/**
+	 * Returns whether or not white was to move in the position of a descriptor bitstring. The
+	 * Zobrist hashes do not tell the side to move apart, so a score is only used by the same side.
+	 * @param string The descriptor bitstring, as returned by get().
+	 * @return True if white was to move.
+	 */
+	public static boolean isWhiteMove(long string){
+		return (string & MASK_BIT) != 0;
+	}
+	/**
+	 * Returns the level stored in a descriptor bitstring.
+	 * @param string The descriptor bitstring, as returned by get().
+	 * @return The level of the entry, the depth it was searched to.
+	 */
+	public static int getStoredLevel(long string){
+		return (int)(string >> LEVEL_RSH) & MASK_BYTE;
+	}
+	/**
+	 * Returns the generation stored in a descriptor bitstring.
+	 * @param string The descriptor bitstring, as returned by get().
+	 * @return The generation of the search that wrote the entry.
+	 */
+	public static int getStoredGeneration(long string){
+		return (int)(string >> GENERATION_RSH) & MASK_BYTE;
+	}
+	/**
+	 * Gets a hash from the hash table.
 	 * @param hash The true Zobrist hash.
 	 * @return The descriptor bitstring. -1 if the hash was not found in the table.
 	 */
 	public long get(long hash){
-		int index = (int)(hash & (MASK_INDEX));
-		long string = -1;
-		if(hashes[index] == hash) string = bitstring_descript [index];
-		if (string != -1){
-			//System.out.println("Get called, returned: " + (string >> SCORE_RSH) + ", Hash = " + hash);
+		long bucket = (hash & MASK_INDEX) * BUCKET_SIZE * 2;
+		for (long i = bucket; i < bucket + BUCKET_SIZE * 2; i += 2){
+			long string = load(i + 1);
+			if ((load(i) ^ string) == hash && !isEmpty(i)){
+				//System.out.println("Get called, returned: " + (string >> SCORE_RSH) + ", Hash = " + hash);
+				return string;
+			}
 		}
-		return string;
+		return -1;
+	}
+
+	/**
+	 * Gets the level an entry of the hash table was stored with.
+	 * @param hash The true Zobrist hash.
+	 * @return The level of the entry, the depth it was searched to. -1 if the hash was not found.
+	 */
+	public int getLevel(long hash){
+		long string = get(hash);
+		return string == -1 ? -1 : getStoredLevel(string);
+	}
+	/**
+	 * Returns whether or not an entry has never been written.
+	 * @param index The index of the first long of the entry.
+	 * @return True if the entry is empty.
+	 */
+	private boolean isEmpty(long index){
+		return load(index) == 0 && load(index + 1) == 0;
 	}
-	
-	public Move[] getKillers(){
-		return killer_moves;
+	/**
+	 * Sets the number of buckets of the table, once its storage has been allocated.
+	 * @param buckets The number of buckets, a power of two.
+	 */
+	private void setBuckets(long buckets){
+		size = buckets * BUCKET_SIZE;
+		MASK_INDEX = buckets - 1;
+	}
+	// ----------------------End of Method----------------------
+	// ----------------------Storage----------------------
+	/**
+	 * Returns the largest number of longs that the storage can allocate.
+	 * @return The number of longs.
+	 */
+	protected long getMaxLongs(){
+		return 1L << 30;
+	}
+	/**
+	 * Replaces the storage by an empty one. Called from the constructor, so subclasses must not
+	 * initialize the fields it sets in their declarations.
+	 * @param longs The number of longs to store, a power of two.
+	 */
+	protected void allocate(long longs){
+		entries = null;
+		entries = new long[(int) longs];
+	}
+	/**
+	 * Reads a long of the storage.
+	 * @param index The index of the long.
+	 * @return The long.
+	 */
+	protected long load(long index){
+		return entries[(int) index];
+	}
+	/**
+	 * Writes a long of the storage.
+	 * @param index The index of the long.
+	 * @param value The long.
+	 */
+	protected void store(long index, long value){
+		entries[(int) index] = value;
+	}
+	/**
+	 * Sets every long of the storage to 0.
+	 */
+	protected void erase(){
+		Arrays.fill(entries, 0);
 	}
+	// ----------------------End of Storage----------------------
 }
\ No newline at end of file
@@ -0,0 +1,128 @@
+package tables;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class serves as a static utility class to save a transposition table to a file and to map
+ * it back in, so that a later run starts from what the earlier ones have learned. The file is a
+ * 64 byte header followed by the longs of the entries, little-endian:
+ * <pre>
+ * 0  int  MAGIC, "MYRT"
+ * 4  int  VERSION, the layout of the header and of the descriptor bitstrings
+ * 8  long the fingerprint of the Zobrist hashes, see Zobrist.fingerprint()
+ * 16 long the number of buckets
+ * 24 int  the generation of the last search
+ * </pre>
+ * A file written with another version or other Zobrist hashes is refused, as its entries would
+ * be read wrong or never be found. The fingerprint is computed from the hash values through the
+ * hashing methods themselves, so it changes with the seed, the values and the way the pieces and
+ * squares map to them.
+ * @author Spork Innovation Technologies
+ */
+public final class RoundFile {
+	//----------------------Constants----------------------
+	/** The first four bytes of every file, "MYRT". */
+	public static final int MAGIC = 0x4d595254;
+	/** The version of the file layout, to be raised whenever it, the bitstrings or the hashes change. */
+	public static final int VERSION = 3;
+	/** The size of the header, in bytes. */
+	private static final int HEADER_SIZE = 64;
+	/** The number of longs per chunk, as in OffHeapRound. */
+	private static final long CHUNK_LONGS = 1L << OffHeapRound.CHUNK_BITS;
+	//----------------------End of Constants----------------------
+
+	//----------------------Methods----------------------
+	/**
+	 * Saves a transposition table to a file, replacing the file if it exists. The file may be the
+	 * one the table was loaded from.
+	 * @param tt The table to save, which should not be searched with in the meantime: an entry
+	 * written while it is saved may be saved torn, and is then read as a miss.
+	 * @param file The file to write.
+	 * @throws IOException If the file could not be written.
+	 * @throws IllegalArgumentException If the table is not a Round, whose entries are saved.
+	 */
+	public static void save(TranspositionTable tt, File file) throws IOException {
+		if (!(tt instanceof Round))
+			throw new IllegalArgumentException("Only the entries of a Round can be saved.");
+		Round table = (Round) tt;
+		long longs = table.getBuckets() * Round.BUCKET_SIZE * 2;
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			// a file mapped by load() may not be resized on every platform, and is already as long
+			if (raf.length() != HEADER_SIZE + longs * 8) raf.setLength(HEADER_SIZE + longs * 8);
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, Zobrist.fingerprint());
+			header.putLong(16, table.getBuckets()).putInt(24, table.getGeneration());
+			long index = 0;
+			for (ByteBuffer chunk : mapChunks(channel, longs, FileChannel.MapMode.READ_WRITE)) {
+				for (int offset = 0; offset < chunk.capacity(); offset += 8)
+					chunk.putLong(offset, table.load(index++));
+				((MappedByteBuffer) chunk).force();
+			}
+			header.force();
+		} finally {
+			raf.close();
+		}
+	}
+	/**
+	 * Maps a transposition table back in from a file. The file is mapped privately: the table
+	 * reads its entries from the file as they are needed, and what is written to the table is
+	 * never written back to the file, which needs to be saved again for that.
+	 * @param file The file saved by save().
+	 * @return The table, kept off the Java heap.
+	 * @throws IOException If the file could not be read, or is not a table of this version and
+	 * Zobrist hashes.
+	 */
+	public static OffHeapRound load(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() < HEADER_SIZE) throw new IOException(file + " is not a table.");
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt(0) != MAGIC) throw new IOException(file + " is not a table.");
+			if (header.getInt(4) != VERSION)
+				throw new IOException(file + " is of version " + header.getInt(4) + ", not " + VERSION + ".");
+			if (header.getLong(8) != Zobrist.fingerprint())
+				throw new IOException(file + " was hashed with other Zobrist hashes.");
+			long buckets = header.getLong(16);
+			long longs = buckets * Round.BUCKET_SIZE * 2;
+			if (buckets <= 0 || Long.bitCount(buckets) != 1 || channel.size() != HEADER_SIZE + longs * 8)
+				throw new IOException(file + " is truncated or corrupt.");
+			ByteBuffer[] chunks = mapChunks(channel, longs, FileChannel.MapMode.PRIVATE);
+			return new OffHeapRound(chunks, buckets, header.getInt(24));
+		} finally {
+			raf.close();
+		}
+	}
+	//----------------------End of Methods----------------------
+
+	//----------------------Helper Methods----------------------
+	/**
+	 * Maps the entries of a file in chunks of the size OffHeapRound expects.
+	 * @param channel The channel of the file.
+	 * @param longs The number of longs of the entries.
+	 * @param mode The mode to map the file in.
+	 * @return The chunks, little-endian.
+	 * @throws IOException If the file could not be mapped.
+	 */
+	private static ByteBuffer[] mapChunks(FileChannel channel, long longs, FileChannel.MapMode mode)
+			throws IOException {
+		long chunk_longs = Math.min(longs, CHUNK_LONGS);
+		ByteBuffer[] chunks = new ByteBuffer[(int) (longs / chunk_longs)];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = channel.map(mode, HEADER_SIZE + i * chunk_longs * 8, chunk_longs * 8);
+			chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return chunks;
+	}
+	//----------------------End of Helper Methods----------------------
+}
\ No newline at end of file
@@ -0,0 +1,75 @@
+package tables;
+
+import rules.Move;
+
+/**
+ * The operations of a transposition table, as used by the search. The entries are the descriptor
+ * bitstrings of Round, whose constants and static methods read them, whatever the table keeping
+ * them. Round keeps its entries in a Java array, OffHeapRound keeps them outside of the Java heap
+ * for the sizes that the heap cannot take.
+ * @author Spork Innovation Technologies
+ */
+public interface TranspositionTable {
+	/**
+	 * Adds an element to the table.
+	 * @param hash The true Zobrist hash of the position.
+	 * @param score The score (evaluated or bound) of the position.
+	 * @param level The level of the position.
+	 * @param exactValue Whether or not the score is a bound.
+	 * @param bound An alpha or beta bound? True if alpha, false if beta.
+	 * @param move The refutation move if the score is a bound.
+	 * @param whiteMove Whether or not white is to move in the position.
+	 * @return Whether or not the entry was stored into the table.
+	 */
+	boolean set(long hash, long score, short level, boolean exactValue, boolean bound, Move move,
+			boolean whiteMove);
+	/**
+	 * Adds an element to the table, with the refutation move in its packed form.
+	 * @param hash The true Zobrist hash of the position.
+	 * @param score The score (evaluated or bound) of the position.
+	 * @param level The level of the position.
+	 * @param exactValue Whether or not the score is a bound.
+	 * @param bound An alpha or beta bound? True if alpha, false if beta.
+	 * @param move The packed refutation move if the score is a bound, Move.NO_MOVE if none.
+	 * @param whiteMove Whether or not white is to move in the position.
+	 * @return Whether or not the entry was stored into the table.
+	 */
+	boolean set(long hash, long score, short level, boolean exactValue, boolean bound, int move,
+			boolean whiteMove);
+	/**
+	 * Gets a hash from the table.
+	 * @param hash The true Zobrist hash.
+	 * @return The descriptor bitstring. -1 if the hash was not found in the table.
+	 */
+	long get(long hash);
+	/**
+	 * Gets the level an entry of the table was stored with.
+	 * @param hash The true Zobrist hash.
+	 * @return The level of the entry, the depth it was searched to. -1 if the hash was not found.
+	 */
+	int getLevel(long hash);
+	/**
+	 * Returns the maximum capacity of the table.
+	 * @return The number of entries.
+	 */
+	long getSize();
+	/**
+	 * Reallocates the table to about the given size, which empties it. Must not be called during
+	 * a search.
+	 * @param megabytes The size of the table in megabytes, at least 1.
+	 */
+	void resize(int megabytes);
+	/**
+	 * Empties the table. Must not be called during a search.
+	 */
+	void clear();
+	/**
+	 * Starts a new generation, to be called once before every search.
+	 */
+	void newSearch();
+	/**
+	 * Returns how full the table is with entries of the current generation.
+	 * @return The number of entries of the current generation per thousand.
+	 */
+	int hashfull();
+}
\ No newline at end of file
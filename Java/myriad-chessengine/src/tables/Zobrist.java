@@ -10,47 +10,32 @@ import rules.*;
  */
 public class Zobrist {
 	//----------------------Constants----------------------
-	/**Stores the multipliers for each piece object to access the array.*/
-	private static final int[] multiplier = {1, 2, 4, 6, 8, 10, 12};
 	/**The basic starting hash (empty board, no pieces, no castling rights)*/
 	private static final long base_hash = 0x00000000;
 	/** The index where castling hashes begin. */
 	private static final int CASTLING_HASHES = 832;
+	/** The index of the null move hash. */
+	private static final int NULL_MOVE_INDEX = 836;
 	/** The id to use for en passant in conjunction with getIndex **/
 	private static final byte EN_PASSANT_ID = 6;
+	/** The seed of the hash values. */
+	public static final long SEED = 1995;
 	//----------------------End of Constants----------------------
 	//----------------------Fields----------------------
 	/**
 	 * The hash indices and their values. Indices 0-127 are for pawns (2 colors, 64 squares), indices
 	 * 128-255 are for rooks, indices 256-383 are for kights, indices 384-511 are for bishops, 
 	 * indices 512-639 are for queens, 640-767 are for kings, 768-831 are for en passant squares,
-	 * 832-835 are for castling rights.
+	 * 832-835 are for castling rights, 836 is for the null move.
 	 */
-	private static long[] hash_values = new long[836];
+	private static final long[] hash_values = generate();
 	//----------------------End of Fields----------------------
 	//----------------------Methods----------------------
 	/**
-	 * Initialises the hashing system by generating the xor hash values. All hash values are unique,
-	 * although there may be collisions within indices.
+	 * Initialises the hashing system. The hash values are generated when the class is loaded, so
+	 * that no hash is ever computed from empty values; this only makes sure that it is loaded.
 	 */
 	public static void init(){
-		Random rdm = new Random(1995);
-		long [] strings = new long[836];
-		for(int i = 0; i < strings.length; i++){
-			long data = Math.abs(0x0 + rdm.nextLong());
-			boolean unique = false;
-			while(!unique){
-				unique = true;
-				for(int k = 0; k < i; k++){
-					if(data == strings[k]){
-						data = rdm.nextLong();
-						unique = false;
-					}
-				}
-			}
-			strings[i] = data;
-		}
-		hash_values = strings;
 	}
 	/**
 	 * Creates a hash value from scratch. If there is an initial hash to compare to, then do not use
@@ -71,6 +56,23 @@ public class Zobrist {
 		if ((epsq & 0x88) == 0) to_return ^= hash_values[getIndex(epsq, EN_PASSANT_ID, Piece.WHITE)];
 		return to_return;
 	}
+	/**
+	 * Creates the pawn hash of a position from scratch, which only hashes the pawns. The pawn hash
+	 * is kept up to date with xorinout() and xorout() as pawns move, are captured and promote.
+	 * @param white The white pieces to hash the pawns of.
+	 * @param black The black pieces to hash the pawns of.
+	 * @return The pawn hash of the position.
+	 */
+	public static long createpawnhash (Piece [] white, Piece [] black){
+		long to_return = base_hash;
+		for (Piece r: white)
+			if (r.exists() && r.getType() == Piece.PAWN)
+				to_return ^= hash_values[getIndex(r.getPosition(), Piece.PAWN, r.getColour())];
+		for (Piece r: black)
+			if (r.exists() && r.getType() == Piece.PAWN)
+				to_return ^= hash_values[getIndex(r.getPosition(), Piece.PAWN, r.getColour())];
+		return to_return;
+	}
 	/**
 	 * Xors out a square from the hash and xors in a new square from the hash. Used for normal moves.
 	 * @param original_hash The original hash value.
@@ -107,6 +109,21 @@ public class Zobrist {
 			if (original_rights[i] &&!new_rights[i]) new_hash ^= hash_values[CASTLING_HASHES+i];
 		return new_hash;
 	}
+	/**
+	 * Xors in new castling rights, given as flags with one bit per right in the order of
+	 * Position.getCastlingRights().
+	 * @param original_hash The original hash value.
+	 * @param original_rights The original castling flags to hash out.
+	 * @param new_rights The new castling flags to hash in.
+	 * @return A new hash after the specified transformations.
+	 */
+	public static long xorcastling (long original_hash, int original_rights, int new_rights){
+		long new_hash = original_hash;
+		int lost = original_rights & ~new_rights;
+		for (int i = 0; i < 4; i++)
+			if ((lost & (1 << i)) != 0) new_hash ^= hash_values[CASTLING_HASHES+i];
+		return new_hash;
+	}
 	/**
 	 * Xors in new en passant square designations.
 	 * @param original_hash The original hash value.
@@ -117,7 +134,7 @@ public class Zobrist {
 	public static long xorepsq (long original_hash, byte original_epsq, byte new_epsq){
 		long new_hash = original_hash;
 		if ((original_epsq & 0x88)==0) new_hash^=hash_values[getIndex(original_epsq,EN_PASSANT_ID,Piece.WHITE)];
-		if ((new_epsq & 0x88)==0) new_hash^= hash_values[getIndex(original_epsq,EN_PASSANT_ID,Piece.WHITE)];
+		if ((new_epsq & 0x88)==0) new_hash^= hash_values[getIndex(new_epsq,EN_PASSANT_ID,Piece.WHITE)];
 		return new_hash;
 	}
 	/**
@@ -134,9 +151,70 @@ public class Zobrist {
 		new_hash^=hash_values[getIndex(position, newtype, color)];
 		return new_hash;
 	}
+	/**
+	 * Xors in a null move, the side to move passing. The hashes do not tell the side to move, so
+	 * this keeps a position after a null move from sharing the hash of the position before it.
+	 * @param original_hash The original hash value.
+	 * @return A new hash after the specified transformation.
+	 */
+	public static long xornullmove (long original_hash){
+		return original_hash ^ hash_values[NULL_MOVE_INDEX];
+	}
+	/**
+	 * Returns a fingerprint of the hashes, for files of hashes to be checked against: every hash a
+	 * piece, en passant square, castling right or null move can xor in is folded in, in a fixed
+	 * order, through the methods above. Two runs share a fingerprint only if they hash every
+	 * position alike, barring a collision of the fingerprints.
+	 * @return The fingerprint.
+	 */
+	public static long fingerprint (){
+		long fingerprint = SEED;
+		for (byte type = Piece.PAWN; type <= Piece.KING; type++)
+			for (byte color : new byte[] { Piece.WHITE, Piece.BLACK })
+				for (int sq = 0; sq < 0x80; sq++)
+					if ((sq & 0x88) == 0) fingerprint = fold(fingerprint, xorout(0, (byte) sq, type, color));
+		for (int sq = 0; sq < 0x80; sq++)
+			if ((sq & 0x88) == 0) fingerprint = fold(fingerprint, xorepsq(0, (byte) -1, (byte) sq));
+		for (int i = 0; i < 4; i++) fingerprint = fold(fingerprint, xorcastling(0, 1 << i, 0));
+		return fold(fingerprint, xornullmove(0));
+	}
 	//----------------------Helper Methods----------------------
 	/**
-	 * Gets the index containing the hash from the hash values array.
+	 * Folds a hash into a fingerprint, so that the order of the hashes counts.
+	 * @param fingerprint The fingerprint so far.
+	 * @param hash The hash to fold in.
+	 * @return The new fingerprint.
+	 */
+	private static long fold(long fingerprint, long hash){
+		return (fingerprint ^ hash) * 0x9e3779b97f4a7c15L + 1;
+	}
+	/**
+	 * Generates the xor hash values from SEED. All hash values are unique, although there may be
+	 * collisions within indices.
+	 * @return The hash values, as laid out in hash_values.
+	 */
+	private static long[] generate(){
+		Random rdm = new Random(SEED);
+		long [] strings = new long[837];
+		for(int i = 0; i < strings.length; i++){
+			long data = Math.abs(0x0 + rdm.nextLong());
+			boolean unique = false;
+			while(!unique){
+				unique = true;
+				for(int k = 0; k < i; k++){
+					if(data == strings[k]){
+						data = rdm.nextLong();
+						unique = false;
+					}
+				}
+			}
+			strings[i] = data;
+		}
+		return strings;
+	}
+	/**
+	 * Gets the index containing the hash from the hash values array, 128 indices per identifier,
+	 * the white ones first, as laid out in hash_values.
 	 * @param pos The position, in hex notation.
 	 * @param id The identifier, the piece identifier or 6 for en passant.
 	 * @param color The color modifier.
@@ -144,7 +222,7 @@ public class Zobrist {
 	 */
 	private static int getIndex(byte pos, byte id, byte color){
 		int modifier = color == Piece.WHITE ? 0 : 64;
-		return modifier+multiplier[id]*(pos-((pos >> 4)*0x8));
+		return id * 128 + modifier + (pos - ((pos >> 4) * 0x8));
 	}
 	//----------------------End of Helper Methods----------------------
 	//----------------------End of Methods----------------------
@@ -0,0 +1,140 @@
+package tree;
+
+import rules.*;
+
+/**
+ * What a search has learned about the quiet moves, to order them. Three tables are kept:
+ * <ul>
+ * <li>the killer moves, the last two quiet moves that caused a cutoff at every ply. A move that
+ * refutes one move at a ply often refutes its siblings too, but rarely the positions of the other
+ * plies, so every ply keeps its own.</li>
+ * <li>the history, a score for every start and end square of every side. A quiet move that causes
+ * a cutoff gains depth*depth, and the quiet moves searched before it lose as much. The gains
+ * shrink as a score nears MAX_HISTORY, and every search halves all the scores, so that the old
+ * searches count for less than the current one.</li>
+ * <li>the countermoves, the last quiet move that refuted every start and end square of the move
+ * before it.</li>
+ * </ul>
+ * The moves are kept packed, without their captured piece, and are validated by MovePicker
+ * before they are handed out. Every search thread keeps its own.
+ * @author Spork Innovation Technologies
+ */
+public final class MoveHistory {
+	//----------------------Constants----------------------
+	/** The bound of the history scores. */
+	public static final int MAX_HISTORY = 1 << 14;
+	/** The number of killer moves per ply. */
+	public static final int KILLERS = 2;
+	/** The number of start and end square pairs of a side. */
+	private static final int SQUARE_PAIRS = 64 * 64;
+	//----------------------End of Constants----------------------
+
+	//----------------------Instance Variables----------------------
+	/** The killer moves of every ply, the latest first. */
+	private final int[][] killers = new int[Position.MAX_PLY][KILLERS];
+	/** The history scores, white's square pairs first. */
+	private final int[] history = new int[2 * SQUARE_PAIRS];
+	/** The countermoves, indexed as the history by the move they refute. */
+	private final int[] countermoves = new int[2 * SQUARE_PAIRS];
+	//----------------------End of Instance Variables----------------------
+
+	//----------------------Methods----------------------
+	/**
+	 * Prepares the tables for a new search: the killer moves, which belong to the plies of the
+	 * last position, are forgotten, and the history scores are halved.
+	 */
+	public void newSearch(){
+		for (int[] ply : killers)
+			for (int i = 0; i < KILLERS; i++) ply[i] = Move.NO_MOVE;
+		for (int i = 0; i < history.length; i++) history[i] /= 2;
+	}
+	/**
+	 * Returns a killer move of a ply.
+	 * @param ply The ply.
+	 * @param slot The slot, 0 for the latest killer move.
+	 * @return The packed killer move, or Move.NO_MOVE.
+	 */
+	public int getKiller(int ply, int slot){
+		return killers[ply][slot];
+	}
+	/**
+	 * Returns the countermove of the move that led to a position.
+	 * @param p The position.
+	 * @return The packed countermove, or Move.NO_MOVE.
+	 */
+	public int getCounterMove(Position p){
+		int prior = p.getPriorMove();
+		return prior == Move.NO_MOVE ? Move.NO_MOVE : countermoves[index(!p.isWhiteToMove(), prior)];
+	}
+	/**
+	 * Returns the history score of a move.
+	 * @param white Whether or not white makes the move.
+	 * @param move The packed move.
+	 * @return The history score, from -MAX_HISTORY to MAX_HISTORY.
+	 */
+	public int getHistory(boolean white, int move){
+		return history[index(white, move)];
+	}
+	/**
+	 * Learns from a quiet move that caused a cutoff.
+	 * @param p The position the move was made in.
+	 * @param ply The ply of the position.
+	 * @param depth The depth the position was searched to.
+	 * @param move The packed move that caused the cutoff.
+	 * @param tried The packed quiet moves searched before it, which did not.
+	 * @param count The number of moves of tried.
+	 */
+	public void update(Position p, int ply, int depth, int move, int[] tried, int count){
+		boolean white = p.isWhiteToMove();
+		move = strip(move);
+		int[] slots = killers[ply];
+		if (slots[0] != move){
+			System.arraycopy(slots, 0, slots, 1, KILLERS - 1);
+			slots[0] = move;
+		}
+		int prior = p.getPriorMove();
+		if (prior != Move.NO_MOVE) countermoves[index(!white, prior)] = move;
+		int bonus = Math.min(depth * depth, MAX_HISTORY);
+		addHistory(index(white, move), bonus);
+		for (int i = 0; i < count; i++) addHistory(index(white, tried[i]), -bonus);
+	}
+	/**
+	 * Empties all the tables.
+	 */
+	public void clear(){
+		newSearch();
+		for (int i = 0; i < history.length; i++) history[i] = 0;
+		for (int i = 0; i < countermoves.length; i++) countermoves[i] = Move.NO_MOVE;
+	}
+	//----------------------End of Methods----------------------
+
+	//----------------------Helper Methods----------------------
+	/**
+	 * Adds to a history score, the more the further the score is from the bound the change heads
+	 * to, so that it never goes past MAX_HISTORY.
+	 * @param i The index of the score.
+	 * @param bonus The change, from -MAX_HISTORY to MAX_HISTORY.
+	 */
+	private void addHistory(int i, int bonus){
+		history[i] += bonus - history[i] * Math.abs(bonus) / MAX_HISTORY;
+	}
+	/**
+	 * Returns the index of a move in the history and countermove tables.
+	 * @param white Whether or not white makes the move.
+	 * @param move The packed move.
+	 * @return The index of its side, start square and end square.
+	 */
+	private static int index(boolean white, int move){
+		return (white ? 0 : SQUARE_PAIRS) + Bitboard.toSquare(Move.startOf(move)) * 64
+				+ Bitboard.toSquare(Move.endOf(move));
+	}
+	/**
+	 * Drops the captured piece of a packed move.
+	 * @param move The packed move.
+	 * @return The packed move without its captured piece.
+	 */
+	private static int strip(int move){
+		return Move.pack(Move.startOf(move), Move.endOf(move), Move.modifierOf(move), Piece.NULL);
+	}
+	//----------------------End of Helper Methods----------------------
+}
\ No newline at end of file
@@ -0,0 +1,272 @@
+package tree;
+
+import rules.*;
+
+/**
+ * Hands out the moves of a position one at a time for the search, in stages, so that the moves
+ * are only generated when they are needed. The stages are, in order: the hash move from the
+ * transposition table, the winning captures (and promotions), the killer moves and the
+ * countermove of the ply, the quiet moves by their history score and finally the losing captures,
+ * see MoveHistory. Most nodes that fail high do so on one of the first moves, and
+ * then the later stages are never generated. For the same reason the hash move, the killer moves
+ * and the countermove are only validated in the position when their stage is reached.
+ *
+ * A capture is losing if it loses material once the exchange it starts is played out, see
+ * Position.seeGreaterOrEqual(). The pickers are reused, the search keeps one per ply.
+ *
+ * For the quiescence search, see resetCaptures(), only the winning captures are handed out: the
+ * losing ones are pruned and the quiet moves are never generated.
+ * @author Spork Innovation Technologies
+ */
+public final class MovePicker {
+	//----------------------Constants----------------------
+	/** The stage that hands out the hash move. */
+	private static final int HASH_MOVE = 0;
+	/** The stage that generates the captures. */
+	private static final int GENERATE_CAPTURES = 1;
+	/** The stage that hands out the winning captures. */
+	private static final int WINNING_CAPTURES = 2;
+	/** The stage that hands out the killer moves and the countermove. */
+	private static final int KILLERS = 3;
+	/** The stage that generates the quiet moves. */
+	private static final int GENERATE_QUIETS = 4;
+	/** The stage that hands out the quiet moves. */
+	private static final int QUIETS = 5;
+	/** The stage that hands out the losing captures. */
+	private static final int LOSING_CAPTURES = 6;
+	/** The stage after all the moves have been handed out. */
+	private static final int DONE = 7;
+	//----------------------End of Constants----------------------
+
+	//----------------------Instance Variables----------------------
+	/** The moves of the current stage. */
+	private final int[] moves = new int[Position.MAX_MOVES];
+	/** The ordering scores of the moves of the current stage. */
+	private final int[] scores = new int[Position.MAX_MOVES];
+	/** The losing captures, kept for the last stage. */
+	private final int[] losing = new int[Position.MAX_MOVES];
+	/** The ordering scores of the losing captures. */
+	private final int[] losing_scores = new int[Position.MAX_MOVES];
+	/** The position the moves are picked from. */
+	private Position board;
+	/** The hash move, as generated in the position once its stage validates it, or Move.NO_MOVE. */
+	private int hash_move;
+	/** The killer moves and the countermove, as stored in the history until the killer stage
+	 * validates them, then as generated in the position, or Move.NO_MOVE. */
+	private int killer_1, killer_2, countermove;
+	/** The history the quiet moves are ordered by, or null to leave them in generation order. */
+	private MoveHistory history;
+	/** The current stage. */
+	private int stage;
+	/** The index of the next move of the current stage. */
+	private int index;
+	/** The number of moves of the current stage. */
+	private int count;
+	/** The number of losing captures. */
+	private int losing_count;
+	/** Whether or not only the winning captures are handed out. */
+	private boolean captures_only;
+	//----------------------End of Instance Variables----------------------
+
+	//----------------------Methods----------------------
+	/**
+	 * Starts picking the moves of a position.
+	 * @param p The position, it must not change until all the moves are picked.
+	 * @param hash The hash move from the transposition table, or Move.NO_MOVE. It is validated
+	 * when it is picked.
+	 * @param history The killer moves, countermoves and history scores, or null if there are none.
+	 * Its moves are validated when their stage is reached.
+	 * @param ply The ply of the position, whose killer moves are tried.
+	 */
+	public void reset(Position p, int hash, MoveHistory history, int ply){
+		board = p;
+		this.history = history;
+		hash_move = hash;
+		killer_1 = killer_2 = countermove = Move.NO_MOVE;
+		if (history != null){
+			// the history keeps its moves without their captured piece, so they compare as is
+			killer_1 = history.getKiller(ply, 0);
+			killer_2 = history.getKiller(ply, 1);
+			if (killer_2 == killer_1) killer_2 = Move.NO_MOVE;
+			countermove = history.getCounterMove(p);
+			if (countermove == killer_1 || countermove == killer_2) countermove = Move.NO_MOVE;
+		}
+		stage = HASH_MOVE;
+		index = count = losing_count = 0;
+		captures_only = false;
+	}
+	/**
+	 * Starts picking the winning captures and promotions of a position, for the quiescence search.
+	 * @param p The position, it must not change until all the moves are picked.
+	 */
+	public void resetCaptures(Position p){
+		board = p;
+		history = null;
+		hash_move = killer_1 = killer_2 = countermove = Move.NO_MOVE;
+		stage = GENERATE_CAPTURES;
+		index = count = losing_count = 0;
+		captures_only = true;
+	}
+	/**
+	 * Returns the next move of the position.
+	 * @return The next packed move, or Move.NO_MOVE if all the moves have been picked.
+	 */
+	public int next(){
+		while (true){
+			switch (stage){
+			case HASH_MOVE:
+				stage = GENERATE_CAPTURES;
+				if (hash_move != Move.NO_MOVE) hash_move = board.validateMove(hash_move);
+				if (hash_move != Move.NO_MOVE) return hash_move;
+				break;
+			case GENERATE_CAPTURES:
+				count = board.generateCaptures(moves);
+				index = losing_count = 0;
+				for (int i = 0; i < count; i++){
+					int m = moves[i];
+					if (m == hash_move) continue;
+					int score = scoreCapture(m);
+					if (isLosing(m)){
+						if (captures_only) continue;
+						losing[losing_count] = m;
+						losing_scores[losing_count++] = score;
+					} else {
+						moves[index] = m;
+						scores[index++] = score;
+					}
+				}
+				count = index;
+				index = 0;
+				stage = WINNING_CAPTURES;
+				break;
+			case WINNING_CAPTURES:
+				if (index < count) return pickBest(moves, scores, index++, count);
+				stage = captures_only ? DONE : KILLERS;
+				index = 0;
+				break;
+			case KILLERS:
+				if (index == 3){
+					stage = GENERATE_QUIETS;
+					break;
+				}
+				int killer;
+				if (index == 0) killer = killer_1 = toKiller(killer_1);
+				else if (index == 1) killer = killer_2 = toKiller(killer_2);
+				else killer = countermove = toKiller(countermove);
+				index++;
+				if (killer != Move.NO_MOVE) return killer;
+				break;
+			case GENERATE_QUIETS:
+				count = board.generateQuiets(moves);
+				index = 0;
+				for (int i = 0; i < count; i++){
+					int m = moves[i];
+					if (m == hash_move || m == killer_1 || m == killer_2 || m == countermove) continue;
+					moves[index] = m;
+					scores[index++] = history == null ? 0 
+							: history.getHistory(board.isWhiteToMove(), m);
+				}
+				count = index;
+				index = 0;
+				stage = QUIETS;
+				break;
+			case QUIETS:
+				if (index < count) return pickBest(moves, scores, index++, count);
+				stage = LOSING_CAPTURES;
+				index = 0;
+				break;
+			case LOSING_CAPTURES:
+				if (index < losing_count) return pickBest(losing, losing_scores, index++, losing_count);
+				stage = DONE;
+				break;
+			default:
+				return Move.NO_MOVE;
+			}
+		}
+	}
+	//----------------------End of Methods----------------------
+
+	//----------------------Helper Methods----------------------
+	/**
+	 * Validates a killer move or a countermove in the position. Those that capture or promote are
+	 * dropped, as they are handed out with the captures, and so is the hash move, which has been
+	 * handed out already without needing to be validated again.
+	 * @param killer The packed killer move, or Move.NO_MOVE.
+	 * @return The packed killer move as generated in the position, or Move.NO_MOVE.
+	 */
+	private int toKiller(int killer){
+		if (killer == Move.NO_MOVE || killer == hash_move) return Move.NO_MOVE;
+		int m = board.validateMove(killer);
+		if (m == Move.NO_MOVE || Move.capturedOf(m) != Piece.NULL || isPromotion(m))
+			return Move.NO_MOVE;
+		return m;
+	}
+	/**
+	 * Scores a capture or promotion, the most valuable victim first and then the least valuable
+	 * attacker.
+	 * @param m The packed move.
+	 * @return The ordering score of the move, higher is better.
+	 */
+	private int scoreCapture(int m){
+		int value = Piece.valueOf(Move.capturedOf(m)) + promotionValue(m);
+		return value * 8 - attackerValue(m);
+	}
+	/**
+	 * Checks whether a capture loses material by static exchange, as per the class description.
+	 * @param m The packed move.
+	 * @return Whether or not the move is a losing capture.
+	 */
+	private boolean isLosing(int m){
+		return !board.seeGreaterOrEqual(m, 0);
+	}
+	/**
+	 * Returns the value of the moving piece, with the king counted as worthless since it can only
+	 * capture undefended pieces.
+	 * @param m The packed move.
+	 * @return The value of the moving piece.
+	 */
+	private int attackerValue(int m){
+		byte type = board.getSquareOccupier(Move.startOf(m)).getType();
+		return type == Piece.KING ? 0 : Piece.valueOf(type);
+	}
+	/**
+	 * Returns the value gained by a promotion.
+	 * @param m The packed move.
+	 * @return The value of the new piece less a pawn, 0 if the move is not a promotion.
+	 */
+	private static int promotionValue(int m){
+		byte mod = Move.modifierOf(m);
+		if (mod >= 6 && mod <= 9) return Piece.valueOf((byte) (mod - 5)) - Piece.valueOf(Piece.PAWN);
+		if (mod >= 16 && mod <= 19) return Piece.valueOf((byte) (mod - 15)) - Piece.valueOf(Piece.PAWN);
+		return 0;
+	}
+	/**
+	 * Checks whether a move is a promotion.
+	 * @param m The packed move.
+	 * @return Whether or not the move promotes a pawn.
+	 */
+	private static boolean isPromotion(int m){
+		byte mod = Move.modifierOf(m);
+		return (mod >= 6 && mod <= 9) || (mod >= 16 && mod <= 19);
+	}
+	/**
+	 * Swaps the best scored move of a range to its start and returns it.
+	 * @param list The moves.
+	 * @param values The ordering scores of the moves.
+	 * @param from The start of the range.
+	 * @param to The end of the range, exclusive.
+	 * @return The best scored move of the range.
+	 */
+	private static int pickBest(int[] list, int[] values, int from, int to){
+		int best = from;
+		for (int i = from + 1; i < to; i++)
+			if (values[i] > values[best]) best = i;
+		int m = list[best], v = values[best];
+		list[best] = list[from];
+		values[best] = values[from];
+		list[from] = m;
+		values[from] = v;
+		return m;
+	}
+	//----------------------End of Helper Methods----------------------
+}
\ No newline at end of file
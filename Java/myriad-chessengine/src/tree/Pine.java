@@ -1,52 +1,250 @@
 package tree;
 
+import java.io.File;
+import java.io.IOException;
+
 import eval.*;
 import rules.*;
 import tables.Round;
+import tables.RoundFile;
+import tables.TranspositionTable;
 
+/**
+ * The search of Myriad, a principal variation search deepened one ply at a time. It can search
+ * with more than one thread, see setThreads(): the helper threads search the same root with their
+ * own move ordering state and only share the transposition table with the main thread, so that
+ * what one thread finds orders the moves of the others ("Lazy SMP"). The best move is always the
+ * one of the main thread.
+ */
 public class Pine {
-	public static final Round table = new Round(16);
+	/** The transposition table, shared by all search threads. Its size can be changed with
+	 * resize() between searches, and it can be replaced by setTable(). */
+	private static TranspositionTable table = new Round(Round.DEFAULT_MEGABYTES);
+
+	/** The number of nodes between two checks of the hard limits of the search. */
+	private static final int CHECK_INTERVAL = 1024;
+	/** How far below alpha the static evaluation of a depth 1 node must be for it to only look
+	 * at its captures. */
+	private static final int FUTILITY_MARGIN = 325;
+	/** The bound of the scores, the window of the root. The mate scores are within it. */
+	private static final long INFINITY = Long.MAX_VALUE - 1;
+	/** The score of a won game, from the winner's point of view. */
+	private static final long MATE = Long.MAX_VALUE - 2;
+	/** The smallest depth at which the null move is tried. */
+	private static final int NULL_MOVE_DEPTH = 3;
+	/** The depth below which the null move is searched less deep than the moves, 3 above it. */
+	private static final int NULL_MOVE_DEEP = 7;
+	/** The smallest depth at which the late moves are searched less deep. */
+	private static final int LMR_DEPTH = 3;
+	/** The number of moves searched at full depth before the quiet moves are reduced. */
+	private static final int LMR_MOVES = 3;
+	/** The smallest depth searched with an aspiration window around the score of the last one. */
+	private static final int ASPIRATION_DEPTH = 4;
+	/** The half width of the first aspiration window, doubled every time the score falls out. */
+	private static final long ASPIRATION_WINDOW = 50;
+	/** The half width past which a side of the aspiration window is opened all the way. */
+	private static final long ASPIRATION_MAX = 800;
+	/** The scores beyond which a mate has been found, never searched with an aspiration window. */
+	private static final long MATE_BOUND = INFINITY / 2;
+	/** The limits of the helper threads, which only stop when the main thread does. */
+	private static final SearchLimits NO_LIMITS = new SearchLimits(0, 0, 0, 0);
 
-	private Maple root_leaf;
-	private Maple best_child;
-	private Maple[] offsprings_of_best_child;
-	private static int counter;
+	/** The packed moves of the root, the best one of the last iteration first. */
+	private final int[] root_moves = new int[Position.MAX_MOVES];
+	/** The number of moves of the root. */
+	private int root_count;
+	/** The packed best move of the last completed iteration, or Move.NO_MOVE. */
+	private int best_move;
+	/** The score of the last completed iteration, from the side to move at the root. */
+	private long best_score;
+	/** The principal variation of the last completed iteration, packed. */
+	private final int[] best_pv = new int[Position.MAX_PLY];
+	/** The number of moves of best_pv. */
+	private int best_pv_length;
+	/** The triangular principal variation table: pv[ply] holds the best line found from ply on,
+	 * from pv[ply][ply] to pv[ply][pv_length[ply] - 1]. */
+	private final int[][] pv = new int[Position.MAX_PLY][Position.MAX_PLY];
+	/** The end of the line of every ply in pv. */
+	private final int[] pv_length = new int[Position.MAX_PLY];
+	/** The number of positions evaluated by the current search. */
+	private int counter;
+	/** The move pickers of the search, one per ply. */
+	private final MovePicker[] pickers = new MovePicker[Position.MAX_PLY];
+	/** The killer moves, countermoves and history scores of the search, this thread's own. */
+	private final MoveHistory history = new MoveHistory();
+	/** The quiet moves searched at every ply without a cutoff, which lose history if one comes. */
+	private final int[][] quiets = new int[Position.MAX_PLY][Position.MAX_MOVES];
+	/** The number of threads to search with, the main one included. */
+	private int threads = 1;
+	/** The searchers of the helper threads, built when first needed. */
+	private Pine[] helpers = new Pine[0];
+	/** The position of the root, the one search() searches. */
+	private Position root_position;
+	/** The limits of the current search. */
+	private SearchLimits limits;
+	/** The time the current search started, in milliseconds. */
+	private long start_time;
+	/** The number of nodes visited by the current search, those of the quiescence search included. */
+	private long nodes;
+	/** The number of nodes of the quiescence search visited by the current search. */
+	private long qnodes;
+	/** Whether or not the current search has hit a hard limit, or was told to stop, and is unwinding. */
+	private volatile boolean stopped;
+	/** The depth of the last iteration that was completed. */
+	private int completed_depth;
 
+	/**
+	 * Constructs a search of a position. The search keeps no tree of its own: it makes and unmakes
+	 * the moves on a search board, with its state per ply in arrays allocated once, and what it
+	 * learns is kept in the transposition table for the searches of the next moves.
+	 * @param p The position to search.
+	 */
 	public Pine(Position p){
-		root_leaf = new Maple(null, null, p);
+		this();
+		root_position = p;
 	}
-	public void setCurrentLeaf(Position p, Move prior_move) {
-		if (offsprings_of_best_child != null)
-			for (Maple offspring : offsprings_of_best_child) {
-				if (offspring.getPriorMove().isEqual(prior_move)) {
-					root_leaf = offspring;
-					break;
-				}
+	/**
+	 * Constructs the searcher of a helper thread, which is handed its root by the main one.
+	 */
+	private Pine(){
+		for (int i = 0; i < pickers.length; i++)
+			pickers[i] = new MovePicker();
+	}
+	/**
+	 * Returns the transposition table of the searches.
+	 * @return The transposition table.
+	 */
+	public static TranspositionTable getTable(){
+		return table;
+	}
+	/**
+	 * Replaces the transposition table of the searches, e.g. by an OffHeapRound for the sizes the
+	 * Java heap cannot take. Must not be called during a search.
+	 * @param table The new transposition table.
+	 */
+	public static void setTable(TranspositionTable table){
+		Pine.table = table;
+	}
+	/**
+	 * Replaces the transposition table of the searches by one saved to a file, see RoundFile. Must
+	 * not be called during a search.
+	 * @param file The file saved by saveTable().
+	 * @throws IOException If the file could not be read, or is not a table of these hashes.
+	 */
+	public static void loadTable(File file) throws IOException {
+		setTable(RoundFile.load(file));
+	}
+	/**
+	 * Saves the transposition table of the searches to a file, see RoundFile.
+	 * @param file The file to write.
+	 * @throws IOException If the file could not be written.
+	 */
+	public static void saveTable(File file) throws IOException {
+		RoundFile.save(table, file);
+	}
+	/**
+	 * Keeps the transposition table of the searches in a file across runs: the table is loaded
+	 * from the file if there is one, and saved to it when the virtual machine shuts down. The
+	 * searches still running then may leave torn entries in the file, which are read as misses.
+	 * @param file The file of the table.
+	 */
+	public static void persistTable(final File file){
+		if (file.exists()){
+			try {
+				loadTable(file);
+				System.out.println("Table loaded from " + file + ", " + table.getSize() + " entries.");
+			} catch (IOException e){
+				System.out.println("Table not loaded: " + e.getMessage());
 			}
-		else {
-			root_leaf = new Maple(null, prior_move, p);
 		}
+		Runtime.getRuntime().addShutdownHook(new Thread(){
+			public void run(){
+				try {
+					saveTable(file);
+				} catch (IOException e){
+					System.out.println("Table not saved: " + e.getMessage());
+				}
+			}
+		});
+	}
+	/**
+	 * Sets the number of threads to search with. The helper threads are started by every search
+	 * and stopped when the main thread finishes.
+	 * @param threads The number of threads, the main one included, at least 1.
+	 */
+	public void setThreads(int threads){
+		if (threads < 1) throw new IllegalArgumentException("At least one thread is needed.");
+		this.threads = threads;
+	}
+	/**
+	 * Sets the position the next search searches, once a move has been played.
+	 * @param p The new position.
+	 * @param prior_move The move that led to it.
+	 */
+	public void setCurrentLeaf(Position p, Move prior_move) {
+		root_position = p;
 	}
+	/**
+	 * Returns the best move found by the last search.
+	 * @return The best move, or null if there was none.
+	 */
 	public Move getBestMove(){
-		return best_child.getPriorMove();
+		return best_move == Move.NO_MOVE ? null : Move.toMove(best_move);
+	}
+	/**
+	 * Returns the principal variation of the last search, the line both sides are expected to
+	 * play. It is updated after every iteration the search completes, and starts with the best
+	 * move. The line may end early where a transposition table entry stood in for the search.
+	 * @return The moves of the line, empty if there was no move.
+	 */
+	public Move[] getPrincipalVariation(){
+		Move[] line = new Move[best_pv_length];
+		for (int i = 0; i < best_pv_length; i++) line[i] = Move.toMove(best_pv[i]);
+		return line;
+	}
+	/**
+	 * Returns the score of the last iteration the last search completed.
+	 * @return The score, from the point of view of the side to move at the root.
+	 */
+	public long getScore(){
+		return best_score;
+	}
+	/**
+	 * Returns the depth of the last iteration the last search completed.
+	 * @return The completed depth in plies.
+	 */
+	public int getCompletedDepth(){
+		return completed_depth;
+	}
+	/**
+	 * Returns the number of nodes visited by the last search, by all its threads.
+	 * @return The number of nodes.
+	 */
+	public long getNodes(){
+		long total = nodes;
+		for (Pine helper : helpers) total += helper.nodes;
+		return total;
+	}
+	/**
+	 * Returns the number of nodes of the quiescence search visited by the last search, by all its
+	 * threads. They are also counted by getNodes().
+	 * @return The number of quiescence nodes.
+	 */
+	public long getQNodes(){
+		long total = qnodes;
+		for (Pine helper : helpers) total += helper.qnodes;
+		return total;
 	}
 	private long eval(Position p, int result) {
 		//Assume the position does end in someone winning, 
 		//or that this is the last level of search
 		//d is the result of the game
 		counter++; // counter should be added here
-		Lorenz z = p.lz; //new Lorenz(p);
+		Lorenz z = p.getLorenz();
 		long score = 0;
-		long mat = (z.get(Lorenz.WHITE_ABSOLUTE_MATERIAL) & Crescent.MATERIAL_MASK)
-				- (z.get(Lorenz.BLACK_ABSOLUTE_MATERIAL) & Crescent.MATERIAL_MASK);
+		long mat = p.getMaterial(true) - p.getMaterial(false);
 		long w_sent = z.get(Lorenz.WHITE_SENTINELS), b_sent = z.get(Lorenz.BLACK_SENTINELS);
-		int n_sq_w = 0, n_sq_b = 0;
-		for (int i = 0; i < 64; i ++){
-			if ((w_sent & 1) == 1) n_sq_w++;
-			else if ((b_sent & 1) == 1) n_sq_b++;
-			w_sent >>=1;
-		b_sent >>=1;
-		}
+		int n_sq_w = Long.bitCount(w_sent), n_sq_b = Long.bitCount(b_sent & ~w_sent);
 		return (mat + n_sq_w - n_sq_b + score);		
 	}
 	/**
@@ -60,28 +258,227 @@ public class Pine {
 		System.out.println("PVS Start");
 		System.out.println("PVS Depth = " + depth);
 		Long time = System.nanoTime();
-
-		counter = 0;
-		long best = Long.MIN_VALUE;
-		Maple[] children;
-		
-		if ((children=root_leaf.getChildren()) == null){
-			root_leaf.setChildren(original);
-			children = root_leaf.getChildren();
-		}		
-		for (Maple child: children) {
-			long current = -PVS(child, original.makeMove(child.getPriorMove()), 
-					depth - 1, Long.MIN_VALUE, Long.MAX_VALUE, -color);
-			if (current > best) {
-				best_child = child;
-				best = current;
-			}
-		}
-		offsprings_of_best_child = best_child.getChildren();
+		search(original, SearchLimits.depth(depth), color);
 		System.out.println("Time Elapsed = " + (System.nanoTime()- time)/1000000);
 		System.out.println("Number of Positions Evaluated = " + counter);
+		System.out.println("Nodes = " + getNodes() + ", Quiescence Nodes = " + getQNodes());
+		String line = "";
+		for (Move m : getPrincipalVariation()) line += m + " ";
+		System.out.println("Score = " + best_score + ", PV = " + line.trim());
 		System.out.println("PVS Done");
 	}
+	/**
+	 * Searches the position of the root by iterative deepening: the root is searched to depth
+	 * 1, 2, 3... until one of the limits is reached. Every iteration starts with the best move of
+	 * the one before, and the entries of the transposition table it left behind give the hash moves
+	 * of the next, so the deeper iterations are well ordered. The first iteration starts with the
+	 * hash move of the root, which the search of the previous move may have left. From
+	 * ASPIRATION_DEPTH on, an iteration is first searched with a narrow window around the score of
+	 * the one before, which cuts more of the tree, and searched again with a wider one if its score
+	 * falls out of it.
+	 * @param limits The limits of the search.
+	 * @return The best move of the last completed iteration.
+	 */
+	public Move search(SearchLimits limits) {
+		return search(root_position, limits, root_position.isWhiteToMove() ? 1 : -1);
+	}
+	/**
+	 * Searches a position by iterative deepening, see search(SearchLimits).
+	 * @param original The position to search.
+	 * @param limits The limits of the search.
+	 * @param color 1 if white is to move, -1 if black is.
+	 * @return The best move of the last completed iteration.
+	 */
+	private Move search(Position original, SearchLimits limits, int color) {
+		Position board = original.toSearchBoard();
+		root_count = board.generateMoves(root_moves);
+		long entry = table.get(board.getHash());
+		int hash_move = entry == -1 ? Move.NO_MOVE : board.validateMove(Round.getMove(entry));
+		for (int i = 1; i < root_count; i++)
+			if (root_moves[i] == hash_move) toFront(root_moves, i);
+		best_move = root_count > 0 ? root_moves[0] : Move.NO_MOVE;
+		best_pv_length = 0;
+		completed_depth = 0;
+		int max_depth = limits.getDepth() > 0 ? limits.getDepth() : Position.MAX_PLY - 1;
+		table.newSearch();
+		Thread[] workers = startHelpers(original, max_depth, color);
+		start(limits);
+		for (int depth = 1; depth <= max_depth && root_count > 0; depth++) {
+			if (!deepen(board, depth, color)) break;
+			best_move = root_moves[0];
+			best_pv_length = pv_length[0];
+			System.arraycopy(pv[0], 0, best_pv, 0, best_pv_length);
+			completed_depth = depth;
+			if (limits.getSoftTime() > 0
+					&& System.currentTimeMillis() - start_time >= limits.getSoftTime()) break;
+		}
+		stopHelpers(workers);
+		return getBestMove();
+	}
+	/**
+	 * Searches the root one iteration deep, within an aspiration window around the score of the
+	 * iteration before. When the score falls out of the window, the side it fell out of is widened
+	 * and the iteration searched again, until it falls within.
+	 * @param board The search board, set to the root.
+	 * @param depth The depth of the iteration.
+	 * @param color 1 if white is to move, -1 if black is.
+	 * @return Whether or not the iteration was completed, false if the search was stopped during it.
+	 */
+	private boolean deepen(Position board, int depth, int color) {
+		long alpha = -INFINITY, beta = INFINITY, delta = ASPIRATION_WINDOW;
+		if (depth >= ASPIRATION_DEPTH && Math.abs(best_score) < MATE_BOUND) {
+			alpha = best_score - delta;
+			beta = best_score + delta;
+		}
+		while (true) {
+			long score = iterate(board, depth, alpha, beta, color);
+			if (stopped) return false;
+			if (score <= alpha && alpha > -INFINITY) {
+				delta *= 2;
+				alpha = delta > ASPIRATION_MAX || Math.abs(score) >= MATE_BOUND ? -INFINITY : score - delta;
+			} else if (score >= beta && beta < INFINITY) {
+				delta *= 2;
+				beta = delta > ASPIRATION_MAX || Math.abs(score) >= MATE_BOUND ? INFINITY : score + delta;
+			} else {
+				best_score = score;
+				table.set(board.getHash(), score, (short) depth, true, false, root_moves[0],
+						board.isWhiteToMove());
+				return true;
+			}
+		}
+	}
+	/**
+	 * Searches the root one iteration deep within a window, and then moves the best root move to
+	 * the front so that it is searched first by the next iteration. The first move is searched
+	 * with the whole window, the others with a null window first, as in PVS.
+	 * @param board The search board, set to the root.
+	 * @param depth The depth of the iteration.
+	 * @param alpha Alpha-value
+	 * @param beta Beta-value
+	 * @param color 1 if white is to move, -1 if black is.
+	 * @return The score of the root, alpha or less if every move failed low, beta or more if one
+	 * failed high. Meaningless if the search was stopped during the iteration.
+	 */
+	private long iterate(Position board, int depth, long alpha, long beta, int color) {
+		pv_length[0] = 0;
+		long best = -INFINITY;
+		int best_index = 0;
+		for (int i = 0; i < root_count; i++) {
+			pv_length[1] = 1;
+			board.make(root_moves[i]);
+			long score;
+			if (i == 0) score = -PVS(1, board, depth - 1, -beta, -alpha, -color);
+			else {
+				score = -PVS(1, board, depth - 1, -alpha - 1, -alpha, -color);
+				if (score > alpha && score < beta && !stopped)
+					score = -PVS(1, board, depth - 1, -beta, -alpha, -color);
+			}
+			board.unmake();
+			if (stopped) return 0;
+			if (score > best) {
+				best_index = i;
+				best = score;
+			}
+			if (score > alpha) {
+				alpha = score;
+				updatePV(0, root_moves[i]);
+				if (alpha >= beta) break;
+			}
+		}
+		toFront(root_moves, best_index);
+		return best;
+	}
+	/**
+	 * Makes a move the first of the principal variation of a ply, followed by the line of the
+	 * next ply.
+	 * @param ply The ply.
+	 * @param move The packed move, the new best move of the ply.
+	 */
+	private void updatePV(int ply, int move) {
+		pv[ply][ply] = move;
+		int length = Math.max(pv_length[ply + 1], ply + 1);
+		System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, length - ply - 1);
+		pv_length[ply] = length;
+	}
+	/**
+	 * Moves a move to the front of a list, the moves before it moving down by one.
+	 * @param moves The packed moves.
+	 * @param index The index of the move.
+	 */
+	private static void toFront(int[] moves, int index) {
+		int move = moves[index];
+		System.arraycopy(moves, 0, moves, 1, index);
+		moves[0] = move;
+	}
+	/**
+	 * Resets the state of a searcher for a new search.
+	 * @param limits The limits of the search.
+	 */
+	private void start(SearchLimits limits) {
+		this.limits = limits;
+		start_time = System.currentTimeMillis();
+		counter = 0;
+		nodes = qnodes = 0;
+		history.newSearch();
+		best_score = 0;
+		stopped = false;
+	}
+	/**
+	 * Starts the helper threads of a search. Every helper gets its own search board and its own
+	 * copy of the root moves, and deepens until the main thread stops it. Every other helper
+	 * starts one ply deeper, so that the threads do not all search the same iteration.
+	 * @param original The position to search.
+	 * @param max_depth The maximum depth of the search.
+	 * @param color 1 if white is to move, -1 if black is.
+	 * @return The helper threads.
+	 */
+	private Thread[] startHelpers(Position original, final int max_depth, final int color) {
+		if (helpers.length != threads - 1) {
+			helpers = new Pine[threads - 1];
+			for (int i = 0; i < helpers.length; i++) helpers[i] = new Pine();
+		}
+		Thread[] workers = new Thread[helpers.length];
+		for (int i = 0; i < helpers.length; i++) {
+			final Pine helper = helpers[i];
+			final Position board = original.toSearchBoard();
+			System.arraycopy(root_moves, 0, helper.root_moves, 0, root_count);
+			helper.root_count = root_count;
+			final int first_depth = 1 + (i & 1);
+			helper.start(NO_LIMITS);
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					for (int depth = first_depth; depth <= max_depth && helper.root_count > 0
+							&& helper.deepen(board, depth, color); depth++);
+				}
+			}, "Pine helper " + (i + 1));
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+		return workers;
+	}
+	/**
+	 * Stops the helper threads of a search and waits for them to unwind.
+	 * @param workers The helper threads.
+	 */
+	private void stopHelpers(Thread[] workers) {
+		for (Pine helper : helpers) helper.stopped = true;
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	/**
+	 * Checks the hard time limit and the node budget of the current search, and stops it if one
+	 * of them has been reached.
+	 */
+	private void checkLimits() {
+		if ((limits.getNodes() > 0 && getNodes() >= limits.getNodes()) || (limits.getHardTime() > 0
+				&& System.currentTimeMillis() - start_time >= limits.getHardTime()))
+			stopped = true;
+	}
 	/**
 	 * Starts NegaScout. When finished, we will know
 	 * the best move to make
@@ -98,56 +495,167 @@ public class Pine {
 	//Well, PVS is shorter than Negascout.
 	//Omitting int color parameter since it seems the default is that it be 1...
 	/**
-	 * The recurrent method in our Negascout implementation
-	 * @param child The move which was made
-	 * @param p The position we evaluate, having just made child's move
+	 * The recurrent method in our Negascout implementation. The moves are picked in stages by the
+	 * move picker of the ply, starting with the hash move.
+	 * 
+	 * Two prunings cut the tree down. If the side to move stands at or above beta, it first passes
+	 * (the null move): if the reduced search that follows still fails high, so would a real move
+	 * and the node is cut. This is not tried in check, twice in a row, or when the side to move
+	 * only has pawns left, as the zugzwangs of the endgame would make passing look too good. Then
+	 * the quiet moves that come late in the ordering are searched one or two plies less deep (late
+	 * move reductions), and searched again at full depth if they beat alpha.
+	 * @param ply The number of moves made since the root, used to pick the move picker.
+	 * @param p The search board we evaluate, having just made the move that leads to it. Moves are
+	 * made and unmade on it in place, so it is back to the same position when this returns.
 	 * @param depth Depth  down tree to search. Stops if depth is 0 
 	 * @param alpha Alpha-value
 	 * @param beta Beta-value
 	 * @param color 1 is black CP's move, -1 is white CP's move?
 	 * @return The worth of position p
 	 */
-	private long PVS(Maple child, Position p, int depth, long alpha, long beta, int color) {
-		int outcome = p.getResult();
+	private long PVS(int ply, Position p, int depth, long alpha, long beta, int color) {
+		if ((++nodes % CHECK_INTERVAL) == 0 || (limits.getNodes() > 0 && nodes >= limits.getNodes()))
+			checkLimits();
+		pv_length[ply] = ply;
+		if (stopped) return 0;
+		if (depth <= 0) return quiesce(ply, p, alpha, beta, color);
+		long entry = table.get(p.getHash());
+		// an entry searched deep enough ends a null window search if its bound is on the right side
+		if (entry != -1 && beta - alpha == 1 && Round.getStoredLevel(entry) >= depth
+				&& Round.isWhiteMove(entry) == p.isWhiteToMove()) {
+			long stored = scoreOf(entry);
+			if (Round.isExact(entry) || (Round.isAlphaBound(entry) ? stored <= alpha : stored >= beta))
+				return stored;
+		}
+		MovePicker picker = pickers[ply];
+		picker.reset(p, entry == -1 ? Move.NO_MOVE : Round.getMove(entry), history, ply);
+		int move = picker.next();
+		int outcome = p.getResult(move != Move.NO_MOVE);
 		//Nothing more to search if this is a terminal node,
-		//we've reached infimum (lowest) depth,
 		//or the game has ended (in a victory or a draw)
 		//Well, if the game has ended, it must be terminal...
-		if (depth == 0){
-			long get = table.get(p.getHash());
-			if (get != -1) return (get >> Round.SCORE_RSH)*color;
-			long score = eval (p, outcome);
-			table.set(p.getHash(), score, p.getHalfMoves(), false, false, child.getPriorMove(), p.isWhiteToMove());
-			return score * color;
-		} else if (outcome != 0) {
-			if (outcome == Position.WHITE_WINS) return (Long.MAX_VALUE-2)*color;
-			else if (outcome == Position.BLACK_WINS) return (Long.MIN_VALUE+2)*color;
-			else if (outcome == Position.DRAW) return 0; 
-		} else if (depth == 1){
-			long futprune = eval(p, outcome);
-			long alpha_limit = alpha - 325, beta_limit = beta + 325;
-			if (futprune > alpha_limit || futprune < beta_limit) return futprune;
-		} 
-		Maple[] children;
-		if ((children = child.getChildren()) == null) {
-			child.setChildren(p);
-			children = child.getChildren();
+		if (outcome == Position.WHITE_WINS) return MATE * color;
+		else if (outcome == Position.BLACK_WINS) return -MATE * color;
+		else if (outcome == Position.DRAW) return 0; 
+		boolean in_check = p.isInCheck(false);
+		if (!in_check){
+			long static_eval = eval(p, outcome) * color;
+			// too far behind for a quiet move to help, so only the captures are searched
+			if (depth == 1 && static_eval + FUTILITY_MARGIN <= alpha) return quiesce(ply, p, alpha, beta, color);
+			if (depth >= NULL_MOVE_DEPTH && static_eval >= beta && p.getPriorMove() != Move.NO_MOVE
+					&& hasPieces(p)){
+				p.makeNullMove();
+				long score = -PVS(ply + 1, p, depth - (depth >= NULL_MOVE_DEEP ? 4 : 3), -beta, 
+						-beta + 1, -color);
+				p.unmake();
+				if (stopped) return 0;
+				if (score >= beta) return beta;
+			}
 		}
-		long b = beta;
-		for (Maple n : children) {
-			//p is the initial position. We get new positions by applying
-			//the moves in the Maple leaves
-			Position n_pos = p.makeMove(n.getPriorMove());
-			long score = (table.get(n_pos.getHash()) >> Round.SCORE_RSH);
-			if(score == -1) score =	-PVS(n, n_pos, depth - 1, -b, -alpha,-color);
-			if ((alpha < score) && (score < beta) && (n != children[0])) 
-				score =- PVS(n, n_pos, depth -1, -beta, -alpha, -color);
-			if (score > alpha) b = (alpha = score ) + 1;
+		long b = beta, original_alpha = alpha;
+		int best = Move.NO_MOVE;
+		boolean first = true;
+		int searched = 0, quiet_count = 0;
+		for (; move != Move.NO_MOVE; move = picker.next()) {
+			//p is the initial position. We get new positions by making
+			//the moves handed out by the picker, and unmaking them afterwards
+			boolean quiet = isQuiet(move);
+			pv_length[ply + 1] = ply + 1;
+			p.make(move);
+			int reduction = 0;
+			if (searched >= LMR_MOVES && depth >= LMR_DEPTH && quiet && !in_check 
+					&& !p.isInCheck(false))
+				reduction = searched >= 2 * LMR_MOVES && depth > LMR_DEPTH ? 2 : 1;
+			long score = -PVS(ply + 1, p, depth - 1 - reduction, -b, -alpha,-color);
+			// a reduced move that beats alpha is searched again at full depth
+			if (reduction > 0 && score > alpha && !stopped)
+				score = -PVS(ply + 1, p, depth - 1, -b, -alpha, -color);
+			if ((alpha < score) && (score < beta) && !first) 
+				score =- PVS(ply + 1, p, depth -1, -beta, -alpha, -color);
+			p.unmake();
+			if (stopped) return 0;
+			first = false;
+			searched++;
+			if (score > alpha) {
+				b = (alpha = score) + 1;
+				best = move;
+				if (alpha < beta) updatePV(ply, move);
+			}
 			if (alpha >= beta) {
-				table.set(p.getHash(), score, p.getHalfMoves(), true, true, child.getPriorMove(), p.isWhiteToMove());
+				table.set(p.getHash(), score, (short) depth, false, false, move, p.isWhiteToMove());
+				if (quiet) history.update(p, ply, depth, move, quiets[ply], quiet_count);
 				return alpha;
 			}
+			if (quiet) quiets[ply][quiet_count++] = move;
+		}
+		// exact if a move beat alpha, otherwise no move is known to be best and alpha is a bound
+		table.set(p.getHash(), alpha, (short) depth, alpha > original_alpha, true, best, 
+				p.isWhiteToMove());
+		return alpha;
+	}
+	/**
+	 * Reads the score of a transposition table entry. The table clamps the mate scores, which are
+	 * set back to MATE.
+	 * @param entry The descriptor bitstring.
+	 * @return The score of the entry.
+	 */
+	private static long scoreOf(long entry) {
+		long score = Round.getStoredScore(entry);
+		return score >= Round.MAX_SCORE ? MATE : score <= -Round.MAX_SCORE ? -MATE : score;
+	}
+	/**
+	 * The quiescence search at the horizon of PVS, which only searches the captures and the
+	 * promotions until the position is quiet, so that the evaluation is never taken in the middle
+	 * of an exchange. The side to move may also "stand pat" on the static evaluation, since it is
+	 * not forced to capture. The captures that lose material by static exchange are pruned by the
+	 * move picker.
+	 * @param ply The number of moves made since the root, used to pick the move picker.
+	 * @param p The search board, as in PVS.
+	 * @param alpha Alpha-value
+	 * @param beta Beta-value
+	 * @param color 1 if white is to move, -1 if black is.
+	 * @return The worth of position p
+	 */
+	private long quiesce(int ply, Position p, long alpha, long beta, int color) {
+		qnodes++;
+		pv_length[ply] = ply;
+		if ((++nodes % CHECK_INTERVAL) == 0 || (limits.getNodes() > 0 && nodes >= limits.getNodes()))
+			checkLimits();
+		if (stopped) return 0;
+		long stand_pat = eval(p, Position.NO_RESULT) * color;
+		if (stand_pat >= beta || ply >= Position.MAX_PLY - 1) return stand_pat;
+		if (stand_pat > alpha) alpha = stand_pat;
+		MovePicker picker = pickers[ply];
+		picker.resetCaptures(p);
+		for (int move = picker.next(); move != Move.NO_MOVE; move = picker.next()) {
+			p.make(move);
+			long score = -quiesce(ply + 1, p, -beta, -alpha, -color);
+			p.unmake();
+			if (stopped) return 0;
+			if (score >= beta) return score;
+			if (score > alpha) alpha = score;
 		}
 		return alpha;
 	}
+	/**
+	 * Checks whether the side to move has a piece other than pawns and its king, without which
+	 * the null move is not tried.
+	 * @param p The position.
+	 * @return Whether or not the side to move has a piece.
+	 */
+	private static boolean hasPieces(Position p) {
+		boolean white = p.isWhiteToMove();
+		byte colour = white ? Piece.WHITE : Piece.BLACK;
+		return p.getMaterial(white) > p.getPieceCount(Piece.PAWN, colour) * Piece.valueOf(Piece.PAWN);
+	}
+	/**
+	 * Checks whether a move is quiet, neither a capture nor a promotion, and may thus be reduced.
+	 * @param move The packed move.
+	 * @return Whether or not the move is quiet.
+	 */
+	private static boolean isQuiet(int move) {
+		byte mod = Move.modifierOf(move);
+		return Move.capturedOf(move) == Piece.NULL && mod != 5 && !(mod >= 6 && mod <= 9) 
+				&& !(mod >= 16 && mod <= 19);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+package tree;
+
+/**
+ * The limits of a search, as given to Pine.search(). The search deepens one ply at a time until
+ * one of the limits is reached. A limit of 0 means that there is no such limit.
+ *
+ * The soft time limit is checked between iterations: no new iteration is started once it has
+ * passed. The hard time limit and the node budget are checked during the search, which then stops
+ * at once and throws away the unfinished iteration.
+ * @author Spork Innovation Technologies
+ */
+public final class SearchLimits {
+	//----------------------Instance Variables----------------------
+	/** The maximum depth to search to, in plies. */
+	private final int depth;
+	/** The time after which no new iteration is started, in milliseconds. */
+	private final long soft_time;
+	/** The time after which the search stops, in milliseconds. */
+	private final long hard_time;
+	/** The number of nodes after which the search stops. */
+	private final long nodes;
+	//----------------------End of Instance Variables----------------------
+
+	//----------------------Constructors----------------------
+	/**
+	 * Constructs the limits of a search, 0 meaning no limit for any of them.
+	 * @param depth The maximum depth to search to, in plies.
+	 * @param soft_time The time after which no new iteration is started, in milliseconds.
+	 * @param hard_time The time after which the search stops, in milliseconds.
+	 * @param nodes The number of nodes after which the search stops.
+	 */
+	public SearchLimits(int depth, long soft_time, long hard_time, long nodes){
+		this.depth = depth;
+		this.soft_time = soft_time;
+		this.hard_time = hard_time;
+		this.nodes = nodes;
+	}
+	//----------------------End of Constructors----------------------
+
+	//----------------------Methods----------------------
+	/**
+	 * Returns the limits of a search to a fixed depth.
+	 * @param depth The depth to search to, in plies.
+	 * @return The limits of the search.
+	 */
+	public static SearchLimits depth(int depth){
+		return new SearchLimits(depth, 0, 0, 0);
+	}
+	/**
+	 * Returns the limits of a search on the clock.
+	 * @param soft_time The time after which no new iteration is started, in milliseconds.
+	 * @param hard_time The time after which the search stops, in milliseconds.
+	 * @return The limits of the search.
+	 */
+	public static SearchLimits time(long soft_time, long hard_time){
+		return new SearchLimits(0, soft_time, hard_time, 0);
+	}
+	/**
+	 * Returns the maximum depth to search to.
+	 * @return The maximum depth in plies, 0 if there is none.
+	 */
+	public int getDepth(){
+		return depth;
+	}
+	/**
+	 * Returns the time after which no new iteration is started.
+	 * @return The soft time limit in milliseconds, 0 if there is none.
+	 */
+	public long getSoftTime(){
+		return soft_time;
+	}
+	/**
+	 * Returns the time after which the search stops.
+	 * @return The hard time limit in milliseconds, 0 if there is none.
+	 */
+	public long getHardTime(){
+		return hard_time;
+	}
+	/**
+	 * Returns the number of nodes after which the search stops.
+	 * @return The node budget, 0 if there is none.
+	 */
+	public long getNodes(){
+		return nodes;
+	}
+	//----------------------End of Methods----------------------
+}
\ No newline at end of file